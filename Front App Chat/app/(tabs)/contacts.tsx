@@ -1,4 +1,4 @@
-import React, { useState } from 'react';
+import React, { useCallback, useEffect, useRef, useState } from 'react';
 import { View, FlatList, StyleSheet, Alert, TextInput } from 'react-native';
 import { router } from 'expo-router';
 import { Search } from 'lucide-react-native';
@@ -6,13 +6,53 @@ import ContactItem from '@/components/ContactItem';
 import HeaderBar from '@/components/HeaderBar';
 import { colors, spacing, borderRadius, shadows } from '@/styles/globalStyles';
 import { Contact } from '@/types';
-import { useEffect } from 'react';
 import { apiGet, apiPost } from '@/lib/api';
 import { getToken, clearToken } from '@/lib/auth';
 
+const PAGE_SIZE = 50;
+
+const toContact = (u: any): Contact => ({
+  id: String(u.id),
+  name: u.name,
+  email: u.email,
+  avatar: u.avatar ?? 'https://placehold.co/100x100',
+  isOnline: !!u.online,
+});
+
 export default function ContactsScreen() {
+  // Directory pages (id order) while the search box is empty, server-side typeahead otherwise
   const [contacts, setContacts] = useState<Contact[]>([]);
+  const [results, setResults] = useState<Contact[]>([]);
   const [searchQuery, setSearchQuery] = useState('');
+  const loadingRef = useRef(false);
+  const endReachedRef = useRef(false);
+
+  const handleLoadError = (e: unknown) => {
+    console.warn('Failed to load contacts', e);
+    const msg = (e as Error)?.message || '';
+    if (msg.includes('401') || msg.includes('403')) {
+      router.replace('/(auth)/login');
+    } else {
+      Alert.alert('Erreur', 'Impossible de charger les contacts');
+    }
+  };
+
+  const loadNextPage = useCallback(async () => {
+    if (loadingRef.current || endReachedRef.current) return;
+    loadingRef.current = true;
+    try {
+      const last = contacts[contacts.length - 1];
+      const afterId = last ? `&afterId=${last.id}` : '';
+      const items = await apiGet<any[]>(`/api/contacts?limit=${PAGE_SIZE}${afterId}`);
+      if (items.length < PAGE_SIZE) endReachedRef.current = true;
+      setContacts(prev => [...prev, ...items.map(toContact)]);
+    } catch (e) {
+      endReachedRef.current = true;
+      handleLoadError(e);
+    } finally {
+      loadingRef.current = false;
+    }
+  }, [contacts]);
 
   useEffect(() => {
     (async () => {
@@ -21,32 +61,32 @@ export default function ContactsScreen() {
         router.replace('/(auth)/login');
         return;
       }
+      loadNextPage();
+    })();
+  }, []);
+
+  useEffect(() => {
+    const query = searchQuery.trim();
+    if (!query) {
+      setResults([]);
+      return;
+    }
+    let cancelled = false;
+    const timer = setTimeout(async () => {
       try {
-        const items = await apiGet<any[]>(`/api/contacts`);
-        const mapped: Contact[] = items.map((u) => ({
-          id: String(u.id),
-          name: u.name,
-          email: u.email,
-          avatar: u.avatar ?? 'https://placehold.co/100x100',
-          isOnline: !!u.online,
-        }));
-        setContacts(mapped);
+        const items = await apiGet<any[]>(`/api/contacts/search?q=${encodeURIComponent(query)}`);
+        if (!cancelled) setResults(items.map(toContact));
       } catch (e) {
-        console.warn('Failed to load contacts', e);
-        const msg = (e as Error)?.message || '';
-        if (msg.includes('401') || msg.includes('403')) {
-          router.replace('/(auth)/login');
-        } else {
-          Alert.alert('Erreur', 'Impossible de charger les contacts');
-        }
+        if (!cancelled) handleLoadError(e);
       }
-    })();
-  }, []);
+    }, 250);
+    return () => {
+      cancelled = true;
+      clearTimeout(timer);
+    };
+  }, [searchQuery]);
 
-  const filteredContacts = contacts.filter(contact =>
-    contact.name.toLowerCase().includes(searchQuery.toLowerCase()) ||
-    contact.email.toLowerCase().includes(searchQuery.toLowerCase())
-  );
+  const searching = searchQuery.trim().length > 0;
 
   const handleContactPress = async (contact: Contact) => {
     try {
@@ -87,9 +127,11 @@ export default function ContactsScreen() {
       </View>
       
       <FlatList
-        data={filteredContacts}
+        data={searching ? results : contacts}
         renderItem={renderContact}
         keyExtractor={(item) => item.id}
+        onEndReached={searching ? undefined : loadNextPage}
+        onEndReachedThreshold={0.5}
         contentContainerStyle={styles.listContainer}
         showsVerticalScrollIndicator={false}
       />
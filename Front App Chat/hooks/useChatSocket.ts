@@ -12,6 +12,19 @@ type TypingPayload = {
   isTyping: boolean;
 };
 
+// Published by the server at most every few hundred ms: everyone typing through one node
+type TypingStateFrame = {
+  conversationId: string;
+  node: string;
+  userIds: string[];
+};
+
+// What onTyping receives: everyone typing in the conversation, across nodes
+export type TypingState = {
+  conversationId: string;
+  userIds: string[];
+};
+
 type ReadReceiptPayload = {
   userId: string;
   conversationId: string;
@@ -44,7 +57,7 @@ type ConnectionState = typeof CONNECTION_STATES[keyof typeof CONNECTION_STATES];
 
 interface UseChatSocketProps {
   onMessage: (msg: ChatMessageDto) => void;
-  onTyping?: (payload: TypingPayload) => void;
+  onTyping?: (state: TypingState) => void;
   onRead?: (payload: ReadReceiptPayload) => void;
   onConnectionChange?: (isConnected: boolean) => void;
   onError?: (error: Error) => void;
@@ -350,12 +363,17 @@ export function useChatSocket(
 
     // Subscribe to typing notifications if handler provided
     if (onTyping) {
+      // Latest set per node (several with the broker relay); the union is what is shown
+      const typingByNode = new Map<string, string[]>();
       const typingSubscription = client.subscribe(
         `/topic/conversations/${conversationId}/typing`,
         (message: IMessage) => {
           try {
-            const payload = JSON.parse(message.body) as TypingPayload;
-            onTyping(payload);
+            const frame = JSON.parse(message.body) as TypingStateFrame;
+            typingByNode.set(frame.node ?? '', frame.userIds ?? []);
+            const userIds = new Set<string>();
+            typingByNode.forEach(ids => ids.forEach(id => userIds.add(id)));
+            onTyping({ conversationId: frame.conversationId, userIds: Array.from(userIds) });
           } catch (error) {
             console.error('[WS] Error parsing typing notification:', error);
           }
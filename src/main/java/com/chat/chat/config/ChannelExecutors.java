@@ -0,0 +1,144 @@
+package com.chat.chat.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Executors of the STOMP channels (inbound, outbound, broker), configured under
+ * app.websocket.executor.*:
+ * <ul>
+ *   <li>mode=platform (default): a bounded thread pool per channel ({@code <channel>.threads},
+ *   {@code <channel>.queue-capacity}). A full queue runs the task on the caller thread, which
+ *   slows the producer down instead of dropping frames, unless the channel is created with
+ *   another rejection handler.</li>
+ *   <li>mode=virtual: one virtual thread per message (JDK 21+), so frames blocked on JDBC do
+ *   not hold a pool thread.</li>
+ * </ul>
+ * Each channel publishes websocket.channel.active and websocket.channel.queued gauges tagged
+ * with the channel name.
+ */
+@Slf4j
+@Component
+public class ChannelExecutors implements DisposableBean {
+
+    private final Environment env;
+    private final MeterRegistry meterRegistry;
+    private final boolean virtual;
+    private final List<ThreadPoolTaskExecutor> pools = new ArrayList<>();
+
+    public ChannelExecutors(Environment env, MeterRegistry meterRegistry) {
+        this.env = env;
+        this.meterRegistry = meterRegistry;
+        this.virtual = "virtual".equalsIgnoreCase(env.getProperty("app.websocket.executor.mode", "platform"));
+        if (virtual && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("app.websocket.executor.mode=virtual requires Java 21+, running on "
+                    + Runtime.version());
+        }
+    }
+
+    /**
+     * Executor of the given channel, or {@code null} when the channel is configured with
+     * 0 threads (messages are then handled on the sending thread, in both modes).
+     */
+    public Executor create(String channel, int defaultThreads, int defaultQueueCapacity) {
+        return create(channel, defaultThreads, defaultQueueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Same, with the handler applied when the pool's queue is full (platform mode only: virtual
+     * threads are never rejected).
+     */
+    public Executor create(String channel, int defaultThreads, int defaultQueueCapacity, RejectedExecutionHandler whenFull) {
+        int threads = env.getProperty("app.websocket.executor." + channel + ".threads", Integer.class, defaultThreads);
+        if (threads <= 0) return null;
+        if (virtual) {
+            return virtualExecutor(channel);
+        }
+        int queueCapacity = env.getProperty("app.websocket.executor." + channel + ".queue-capacity",
+                Integer.class, defaultQueueCapacity);
+
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setThreadNamePrefix("ws-" + channel + "-");
+        pool.setCorePoolSize(threads);
+        pool.setMaxPoolSize(threads);
+        pool.setQueueCapacity(queueCapacity);
+        pool.setRejectedExecutionHandler(whenFull);
+        pool.initialize();
+        pools.add(pool);
+
+        gauge("websocket.channel.active", channel, pool, ThreadPoolTaskExecutor::getActiveCount);
+        gauge("websocket.channel.queued", channel, pool, p -> p.getThreadPoolExecutor().getQueue().size());
+        log.info("STOMP {} channel: {} platform threads, queue capacity {}", channel, threads, queueCapacity);
+        return pool;
+    }
+
+    /**
+     * Wraps a channel executor so that work of one conversation runs in order
+     * (see {@link OrderedChannelExecutor}); disabled with {@code <channel>.ordered=false}.
+     */
+    public Executor ordered(String channel, Executor executor) {
+        if (executor == null || !env.getProperty("app.websocket.executor." + channel + ".ordered", Boolean.class, true)) {
+            return executor;
+        }
+        int stripes = env.getProperty("app.websocket.executor." + channel + ".stripes", Integer.class, 1024);
+        OrderedChannelExecutor ordered = new OrderedChannelExecutor(executor, stripes);
+        gauge("websocket.channel.ordered.pending", channel, ordered, OrderedChannelExecutor::pending);
+        return ordered;
+    }
+
+    /**
+     * A pool of its own for work that must stay in order per key, such as the fan-out of one
+     * conversation's messages ({@link OrderedChannelExecutor#execute(Object, Runnable)}). With
+     * 0 threads the work runs on the submitting thread.
+     */
+    public OrderedChannelExecutor keyed(String channel, int defaultThreads, int defaultQueueCapacity) {
+        Executor pool = create(channel, defaultThreads, defaultQueueCapacity);
+        int stripes = env.getProperty("app.websocket.executor." + channel + ".stripes", Integer.class, 1024);
+        OrderedChannelExecutor ordered = new OrderedChannelExecutor(pool != null ? pool : Runnable::run, stripes);
+        gauge("websocket.channel.ordered.pending", channel, ordered, OrderedChannelExecutor::pending);
+        return ordered;
+    }
+
+    private Executor virtualExecutor(String channel) {
+        VirtualThreadTaskExecutor delegate = new VirtualThreadTaskExecutor("ws-" + channel + "-");
+        AtomicInteger active = new AtomicInteger();
+        gauge("websocket.channel.active", channel, active, AtomicInteger::get);
+        gauge("websocket.channel.queued", channel, active, a -> 0); // no queue: every task gets its thread
+        log.info("STOMP {} channel: virtual threads", channel);
+        // A TaskExecutor, as Spring exposes the channel executors as TaskExecutor beans
+        return (TaskExecutor) task -> {
+            active.incrementAndGet();
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+        };
+    }
+
+    private <T> void gauge(String name, String channel, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value).tag("channel", channel).register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(ThreadPoolTaskExecutor::shutdown);
+    }
+}
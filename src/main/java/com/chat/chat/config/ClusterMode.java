@@ -0,0 +1,30 @@
+package com.chat.chat.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Whether this node serves clients alongside other nodes (app.websocket.broker=relay) or alone.
+ *
+ * The in-process caches (recent messages, participants, contact search, media metadata) are
+ * only updated by writes made on their own node, and nothing invalidates them across nodes.
+ * With the relay they are therefore turned off and every read goes to the shared database.
+ */
+@Component
+public class ClusterMode {
+
+    private final boolean relay;
+
+    public ClusterMode(@Value("${app.websocket.broker:simple}") String brokerMode) {
+        this.relay = "relay".equalsIgnoreCase(brokerMode);
+    }
+
+    public boolean isRelay() {
+        return relay;
+    }
+
+    /** False when other nodes write to the database behind this node's caches. */
+    public boolean nodeLocalCaches() {
+        return !relay;
+    }
+}
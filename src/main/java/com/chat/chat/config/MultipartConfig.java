@@ -1,5 +1,6 @@
 package com.chat.chat.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.MultipartConfigFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -7,11 +8,16 @@ import org.springframework.util.unit.DataSize;
 
 import jakarta.servlet.MultipartConfigElement;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 @Configuration
 public class MultipartConfig {
     
     @Bean
-    public MultipartConfigElement multipartConfigElement() {
+    public MultipartConfigElement multipartConfigElement(@Value("${app.upload.dir:uploads}") String uploadDir) throws IOException {
         MultipartConfigFactory factory = new MultipartConfigFactory();
         
         // Set maximum file size (10MB)
@@ -20,8 +26,10 @@ public class MultipartConfig {
         // Set maximum request size (20MB)
         factory.setMaxRequestSize(DataSize.ofMegabytes(20));
         
-        // Set the location where files will be stored temporarily
-        factory.setLocation(System.getProperty("java.io.tmpdir"));
+        // Spool next to the uploads (same file system): storing a part is then a rename, not a copy
+        Path incoming = Paths.get(uploadDir, ".incoming").toAbsolutePath();
+        Files.createDirectories(incoming);
+        factory.setLocation(incoming.toString());
         
         return factory.createMultipartConfig();
     }
@@ -0,0 +1,153 @@
+package com.chat.chat.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs inbound STOMP work serially per conversation and in parallel across conversations.
+ *
+ * Each task is routed to one of a fixed number of stripes by its conversation id (taken from
+ * /app/chat.send/{id} and /app/chat.typing/{id}, or from the conversationId field of a
+ * /app/chat.read payload) and falls back to the session id for everything else. A stripe is a
+ * lock-free queue drained by at most one task of the delegate executor at a time, so there is
+ * neither a lock nor a thread per conversation, and the delegate (platform or virtual threads)
+ * keeps its own sizing.
+ */
+public class OrderedChannelExecutor implements TaskExecutor {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final String SEND_PREFIX = "/app/chat.send/";
+    private static final String TYPING_PREFIX = "/app/chat.typing/";
+    private static final String READ_DESTINATION = "/app/chat.read";
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+
+    private final Executor delegate;
+    private final Stripe[] stripes;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public OrderedChannelExecutor(Executor delegate, int stripes) {
+        if (stripes <= 0) throw new IllegalArgumentException("stripes must be > 0");
+        this.delegate = delegate;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task instanceof MessageHandlingRunnable r ? routingKey(r.getMessage()) : null, task);
+    }
+
+    /** Runs the task after the ones submitted earlier with the same key; a null key is not ordered. */
+    public void execute(Object key, Runnable task) {
+        if (key == null) {
+            delegate.execute(task);
+            return;
+        }
+        pending.incrementAndGet();
+        stripes[Math.floorMod(key.hashCode() * 0x9E3779B9, stripes.length)].submit(task);
+    }
+
+    /** Tasks accepted but not finished yet, across all stripes. */
+    public int pending() {
+        return pending.get();
+    }
+
+    /** Conversation id of a chat frame, otherwise the session id (null when there is neither). */
+    static Object routingKey(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination != null) {
+            Long conversationId = null;
+            if (destination.startsWith(SEND_PREFIX)) {
+                conversationId = parseId(destination, SEND_PREFIX.length());
+            } else if (destination.startsWith(TYPING_PREFIX)) {
+                conversationId = parseId(destination, TYPING_PREFIX.length());
+            } else if (destination.equals(READ_DESTINATION) && message.getPayload() instanceof byte[] payload) {
+                conversationId = conversationIdField(payload);
+            }
+            if (conversationId != null) return conversationId;
+        }
+        return SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+    }
+
+    private static Long parseId(String destination, int from) {
+        try {
+            return Long.valueOf(destination.substring(from));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Reads the top-level "conversationId" field without binding the whole payload. */
+    private static Long conversationIdField(byte[] payload) {
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("conversationId".equals(field)) {
+                    if (value == JsonToken.VALUE_NUMBER_INT) return parser.getLongValue();
+                    if (value == JsonToken.VALUE_STRING) return parseId(parser.getText(), 0);
+                    return null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            // Malformed payload: the handler will report it, ordering falls back to the session
+        }
+        return null;
+    }
+
+    private final class Stripe implements Runnable {
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Runnable task) {
+            queue.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    delegate.execute(this);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                int ran = 0;
+                // Bounded drain: a busy conversation gives its thread back to the other stripes regularly
+                while (ran++ < MAX_TASKS_PER_DRAIN && (task = queue.poll()) != null) {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // Leftovers, or a task queued after the last poll but before the flag was cleared
+                if (!queue.isEmpty()) schedule();
+            }
+        }
+    }
+}
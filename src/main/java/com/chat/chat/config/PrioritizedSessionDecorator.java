@@ -0,0 +1,290 @@
+package com.chat.chat.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outbound side of one WebSocket session: frames are queued in priority lanes and written by
+ * an asynchronous drain, one frame at a time, highest lane first.
+ *
+ * Lanes, by priority: chat messages (and every non-MESSAGE frame), read receipts, presence,
+ * typing. Presence and typing frames are coalesced (the newest frame per destination and user
+ * replaces the queued one). A presence diff (a JSON array of events, one frame per recipient)
+ * is merged into the diff queued for its destination instead, the newest event per user
+ * winning, so that no user's change is lost. When the queued bytes exceed {@code maxBufferBytes} typing, then
+ * presence, then receipt frames are dropped; if chat messages alone are over the budget, or a
+ * single write takes longer than {@code sendTimeLimitMs}, the session is closed. Memory per
+ * stalled client is therefore bounded by the byte budget.
+ */
+@Slf4j
+public class PrioritizedSessionDecorator extends WebSocketSessionDecorator {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public enum Lane { MESSAGE, RECEIPT, PRESENCE, TYPING }
+
+    /** Callbacks used for metrics. */
+    public interface Listener {
+        void onDropped(Lane lane);
+
+        void onCoalesced(Lane lane);
+
+        void onClosed(String reason);
+    }
+
+    private final int maxBufferBytes;
+    private final long sendTimeLimitMs;
+    private final Executor drainExecutor;
+    private final Listener listener;
+
+    // Guarded by this
+    private final ArrayDeque<WebSocketMessage<?>> messages = new ArrayDeque<>();
+    private final ArrayDeque<WebSocketMessage<?>> receipts = new ArrayDeque<>();
+    private final Map<String, WebSocketMessage<?>> presence = new LinkedHashMap<>();
+    private final Map<String, WebSocketMessage<?>> typing = new LinkedHashMap<>();
+    private long bufferedBytes;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long sendStartedAt;
+
+    public PrioritizedSessionDecorator(WebSocketSession delegate, int maxBufferBytes, long sendTimeLimitMs,
+                                       Executor drainExecutor, Listener listener) {
+        super(delegate);
+        this.maxBufferBytes = maxBufferBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.drainExecutor = drainExecutor;
+        this.listener = listener;
+    }
+
+    /** Queues the frame and returns immediately; the write happens on the drain executor. */
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closed.get()) return;
+        String overflow;
+        synchronized (this) {
+            enqueue(message);
+            overflow = enforceBudget();
+        }
+        if (overflow != null) {
+            terminate(overflow);
+            return;
+        }
+        scheduleDrain();
+    }
+
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /** True when the write in progress has been blocked for longer than the time limit. */
+    public boolean isStalled(long nowMs) {
+        long started = sendStartedAt;
+        return started != 0 && nowMs - started > sendTimeLimitMs;
+    }
+
+    /** Drops everything queued and closes the session as not reliable. */
+    public void terminate(String reason) {
+        if (!closed.compareAndSet(false, true)) return;
+        discard();
+        listener.onClosed(reason);
+        log.warn("Closing slow WebSocket session {}: {}", getId(), reason);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE.withReason(reason));
+        } catch (Exception e) {
+            log.debug("Failed to close WebSocket session {}: {}", getId(), e.getMessage());
+        }
+    }
+
+    /** Releases the queued frames once the session is gone. */
+    public synchronized void discard() {
+        messages.clear();
+        receipts.clear();
+        presence.clear();
+        typing.clear();
+        bufferedBytes = 0;
+    }
+
+    private void enqueue(WebSocketMessage<?> message) {
+        String frame = message instanceof TextMessage text ? text.getPayload() : null;
+        String destination = frame == null ? null : messageDestination(frame);
+        Lane lane = lane(destination);
+        switch (lane) {
+            case MESSAGE -> messages.add(message);
+            case RECEIPT -> receipts.add(message);
+            case PRESENCE, TYPING -> {
+                Map<String, WebSocketMessage<?>> coalesced = lane == Lane.PRESENCE ? presence : typing;
+                boolean diff = lane == Lane.PRESENCE && isArray(frame);
+                String key = diff ? destination : destination + '|' + userIdOf(frame);
+                WebSocketMessage<?> queued = coalesced.get(key);
+                if (queued != null && diff) {
+                    TextMessage merged = mergeDiffs(((TextMessage) queued).getPayload(), frame);
+                    // Unreadable diff: queued as is, after the other one
+                    if (merged == null) key = key + '|' + System.identityHashCode(message);
+                    else message = merged;
+                }
+                WebSocketMessage<?> replaced = coalesced.remove(key);
+                if (replaced != null) {
+                    bufferedBytes -= replaced.getPayloadLength();
+                    listener.onCoalesced(lane);
+                }
+                coalesced.put(key, message);
+            }
+        }
+        bufferedBytes += message.getPayloadLength();
+    }
+
+    /** Sheds low-priority frames until the buffer fits; returns the reason to close when it cannot. */
+    private String enforceBudget() {
+        while (bufferedBytes > maxBufferBytes) {
+            Lane lane;
+            WebSocketMessage<?> victim;
+            if ((victim = pollFirst(typing)) != null) lane = Lane.TYPING;
+            else if ((victim = pollFirst(presence)) != null) lane = Lane.PRESENCE;
+            else if ((victim = receipts.poll()) != null) lane = Lane.RECEIPT;
+            else return "outbound buffer over " + maxBufferBytes + " bytes";
+            bufferedBytes -= victim.getPayloadLength();
+            listener.onDropped(lane);
+        }
+        return null;
+    }
+
+    private synchronized WebSocketMessage<?> poll() {
+        WebSocketMessage<?> next = messages.poll();
+        if (next == null) next = receipts.poll();
+        if (next == null) next = pollFirst(presence);
+        if (next == null) next = pollFirst(typing);
+        if (next != null) bufferedBytes -= next.getPayloadLength();
+        return next;
+    }
+
+    private synchronized boolean hasQueued() {
+        return !messages.isEmpty() || !receipts.isEmpty() || !presence.isEmpty() || !typing.isEmpty();
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) return;
+        try {
+            drainExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            terminate("outbound executor saturated");
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> next;
+            while (!closed.get() && (next = poll()) != null) {
+                sendStartedAt = System.currentTimeMillis();
+                try {
+                    getDelegate().sendMessage(next);
+                } finally {
+                    sendStartedAt = 0;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (closed.compareAndSet(false, true)) {
+                discard();
+                log.debug("WebSocket session {} send failed: {}", getId(), e.getMessage());
+            }
+        } finally {
+            draining.set(false);
+            // A frame may have been queued after the last poll
+            if (!closed.get() && hasQueued()) scheduleDrain();
+        }
+    }
+
+    private static WebSocketMessage<?> pollFirst(Map<String, WebSocketMessage<?>> lane) {
+        Iterator<WebSocketMessage<?>> it = lane.values().iterator();
+        if (!it.hasNext()) return null;
+        WebSocketMessage<?> first = it.next();
+        it.remove();
+        return first;
+    }
+
+    static Lane lane(String destination) {
+        if (destination == null) return Lane.MESSAGE;
+        if (destination.endsWith("/typing")) return Lane.TYPING;
+        if (destination.endsWith("/queue/presence")) return Lane.PRESENCE;
+        if (destination.endsWith("/read")) return Lane.RECEIPT;
+        return Lane.MESSAGE;
+    }
+
+    /** Destination of a STOMP MESSAGE frame, null for any other frame (CONNECTED, RECEIPT, heartbeat...). */
+    static String messageDestination(String frame) {
+        if (!frame.startsWith("MESSAGE\n")) return null;
+        int headersEnd = frame.indexOf("\n\n");
+        int start = frame.indexOf("\ndestination:");
+        if (start < 0 || (headersEnd >= 0 && start > headersEnd)) return null;
+        start += "\ndestination:".length();
+        int end = frame.indexOf('\n', start);
+        return end < 0 ? frame.substring(start) : frame.substring(start, end);
+    }
+
+    private static boolean isArray(String frame) {
+        int body = frame.indexOf("\n\n");
+        return body >= 0 && frame.startsWith("[", body + 2);
+    }
+
+    /**
+     * The newer diff frame with the events of the older one for the users it does not mention;
+     * null when either body is not a JSON array.
+     */
+    private static TextMessage mergeDiffs(String older, String newer) {
+        int olderBody = older.indexOf("\n\n");
+        int newerBody = newer.indexOf("\n\n");
+        try {
+            JsonNode olderEvents = JSON.readTree(body(older, olderBody));
+            JsonNode newerEvents = JSON.readTree(body(newer, newerBody));
+            if (!olderEvents.isArray() || !newerEvents.isArray()) return null;
+            Map<String, JsonNode> byUser = new LinkedHashMap<>();
+            for (JsonNode events : new JsonNode[]{olderEvents, newerEvents}) {
+                for (JsonNode event : events) {
+                    JsonNode userId = event.get("userId");
+                    byUser.put(userId == null ? "#" + byUser.size() : userId.asText(), event);
+                }
+            }
+            ArrayNode merged = JSON.createArrayNode().addAll(byUser.values());
+            byte[] payload = JSON.writeValueAsBytes(merged);
+            String headers = newer.substring(0, newerBody)
+                    .replaceFirst("\ncontent-length:\\d+", "\ncontent-length:" + payload.length);
+            return new TextMessage(headers + "\n\n" + new String(payload, StandardCharsets.UTF_8) + "\u0000");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String body(String frame, int headersEnd) {
+        int end = frame.endsWith("\u0000") ? frame.length() - 1 : frame.length();
+        return frame.substring(headersEnd + 2, end);
+    }
+
+    /** Value of a "userId" field in the JSON body, so that users are coalesced separately. */
+    private static String userIdOf(String frame) {
+        int body = frame.indexOf("\n\n");
+        int field = body < 0 ? -1 : frame.indexOf("\"userId\":", body);
+        if (field < 0) return "";
+        int start = field + "\"userId\":".length();
+        int end = start;
+        while (end < frame.length() && ",}\u0000".indexOf(frame.charAt(end)) < 0) end++;
+        return frame.substring(start, end);
+    }
+}
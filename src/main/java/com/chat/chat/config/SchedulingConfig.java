@@ -0,0 +1,41 @@
+package com.chat.chat.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Runs the @Scheduled jobs on their own pool.
+ *
+ * Without it they fall back to the WebSocket broker's scheduler, which also sends the STOMP
+ * heartbeats, and run one at a time: a segment merge or a relay catch-up would hold back the
+ * 100 ms typing tick, the presence flush and the heartbeats. The pool is not a bean, so the
+ * broker keeps the only TaskScheduler in the context.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig implements SchedulingConfigurer, DisposableBean {
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    // One thread per job (typing tick, presence flush, search maintenance and catch-up, upload and media sweeps)
+    public SchedulingConfig(@Value("${app.scheduling.pool-size:6}") int poolSize) {
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("scheduled-");
+        scheduler.initialize();
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(scheduler);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,145 @@
+package com.chat.chat.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts every WebSocket session behind a {@link PrioritizedSessionDecorator}, so that a client
+ * on a bad link costs at most its outbound byte budget and cannot hold back other sessions.
+ * A watchdog closes sessions whose current write has been blocked longer than the time limit,
+ * which also gives the blocked drain thread back.
+ *
+ * Metrics: websocket.outbound.dropped / coalesced (tagged by lane), websocket.outbound.closed,
+ * websocket.outbound.buffered (bytes queued across all sessions) and websocket.outbound.sessions.
+ */
+@Component
+public class SlowConsumerGuard implements WebSocketHandlerDecoratorFactory, PrioritizedSessionDecorator.Listener, DisposableBean {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final int maxBufferBytes;
+    private final long sendTimeLimitMs;
+    private final Executor drainExecutor;
+    private final Map<String, PrioritizedSessionDecorator> sessions = new ConcurrentHashMap<>();
+    private final Map<PrioritizedSessionDecorator.Lane, Counter> dropped = new EnumMap<>(PrioritizedSessionDecorator.Lane.class);
+    private final Map<PrioritizedSessionDecorator.Lane, Counter> coalesced = new EnumMap<>(PrioritizedSessionDecorator.Lane.class);
+    private final Counter closed;
+    private final ScheduledExecutorService watchdog;
+
+    public SlowConsumerGuard(ChannelExecutors channelExecutors,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.websocket.outbound.max-buffer-bytes:524288}") int maxBufferBytes,
+                             @Value("${app.websocket.outbound.send-time-limit-ms:10000}") long sendTimeLimitMs) {
+        this.maxBufferBytes = maxBufferBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        // A full pool must not run a drain on the broker thread, where a stalled client would block
+        // every other session: the rejected session is closed instead
+        Executor executor = channelExecutors.create("session-send", CORES * 4, 100_000, new ThreadPoolExecutor.AbortPolicy());
+        this.drainExecutor = executor != null ? executor : Runnable::run;
+
+        for (PrioritizedSessionDecorator.Lane lane : PrioritizedSessionDecorator.Lane.values()) {
+            String tag = lane.name().toLowerCase();
+            dropped.put(lane, Counter.builder("websocket.outbound.dropped").tag("lane", tag).register(meterRegistry));
+            coalesced.put(lane, Counter.builder("websocket.outbound.coalesced").tag("lane", tag).register(meterRegistry));
+        }
+        this.closed = Counter.builder("websocket.outbound.closed")
+                .description("Sessions closed for exceeding their outbound budget")
+                .register(meterRegistry);
+        Gauge.builder("websocket.outbound.buffered", sessions,
+                        s -> s.values().stream().mapToLong(PrioritizedSessionDecorator::getBufferedBytes).sum())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("websocket.outbound.sessions", sessions, Map::size).register(meterRegistry);
+
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-slow-consumer-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, sendTimeLimitMs / 4);
+        watchdog.scheduleWithFixedDelay(this::closeStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                PrioritizedSessionDecorator decorated = new PrioritizedSessionDecorator(
+                        session, maxBufferBytes, sendTimeLimitMs, drainExecutor, SlowConsumerGuard.this);
+                sessions.put(session.getId(), decorated);
+                super.afterConnectionEstablished(decorated);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                super.handleMessage(decorated(session), message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                super.handleTransportError(decorated(session), exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                PrioritizedSessionDecorator decorated = sessions.remove(session.getId());
+                if (decorated != null) decorated.discard();
+                super.afterConnectionClosed(decorated != null ? decorated : session, closeStatus);
+            }
+        };
+    }
+
+    private WebSocketSession decorated(WebSocketSession session) {
+        PrioritizedSessionDecorator decorated = sessions.get(session.getId());
+        return decorated != null ? decorated : session;
+    }
+
+    private void closeStalled() {
+        long now = System.currentTimeMillis();
+        for (PrioritizedSessionDecorator session : sessions.values()) {
+            if (session.isStalled(now)) {
+                session.terminate("send blocked for more than " + sendTimeLimitMs + " ms");
+            }
+        }
+    }
+
+    @Override
+    public void onDropped(PrioritizedSessionDecorator.Lane lane) {
+        dropped.get(lane).increment();
+    }
+
+    @Override
+    public void onCoalesced(PrioritizedSessionDecorator.Lane lane) {
+        coalesced.get(lane).increment();
+    }
+
+    @Override
+    public void onClosed(String reason) {
+        closed.increment();
+    }
+
+    @Override
+    public void destroy() {
+        watchdog.shutdownNow();
+    }
+}
@@ -1,21 +1,102 @@
 package com.chat.chat.config;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompReactorNettyCodec;
+import org.springframework.messaging.tcp.reactor.ReactorNettyTcpClient;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import com.chat.chat.security.WebSocketAuthInterceptor;
+import io.netty.channel.ChannelOption;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpClient;
 
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * STOMP endpoint and broker.
+ *
+ * app.websocket.broker=simple (default) keeps the in-memory broker: subscribers only receive
+ * what is sent on the same node. app.websocket.broker=relay forwards /topic and /queue to an
+ * external STOMP broker (RabbitMQ, ActiveMQ Artemis, ...) so that any number of nodes can
+ * serve clients; user destinations and the user registry are then shared through the broker.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, DisposableBean {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
 
     private final WebSocketAuthInterceptor authInterceptor;
+    private final ChannelExecutors channelExecutors;
+    private final SlowConsumerGuard slowConsumerGuard;
+
+    @Value("${app.websocket.broker:simple}")
+    private String brokerMode;
+
+    @Value("${app.websocket.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${app.websocket.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${app.websocket.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    @Value("${app.websocket.relay.client-login:guest}")
+    private String clientLogin;
+
+    @Value("${app.websocket.relay.client-passcode:guest}")
+    private String clientPasscode;
+
+    @Value("${app.websocket.relay.system-login:guest}")
+    private String systemLogin;
+
+    @Value("${app.websocket.relay.system-passcode:guest}")
+    private String systemPasscode;
+
+    @Value("${app.websocket.relay.heartbeat-send-ms:10000}")
+    private long heartbeatSendMs;
+
+    @Value("${app.websocket.relay.heartbeat-receive-ms:10000}")
+    private long heartbeatReceiveMs;
+
+    @Value("${app.websocket.heartbeat-send-ms:10000}")
+    private long clientHeartbeatSendMs;
+
+    @Value("${app.websocket.heartbeat-receive-ms:10000}")
+    private long clientHeartbeatReceiveMs;
+
+    @Value("${app.websocket.relay.max-connections:10000}")
+    private int maxConnections;
 
-    public WebSocketConfig(WebSocketAuthInterceptor authInterceptor) {
+    @Value("${app.websocket.relay.connect-timeout-ms:5000}")
+    private int connectTimeoutMs;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+    private ConnectionProvider relayConnections;
+    private LoopResources relayLoops;
+
+    public WebSocketConfig(WebSocketAuthInterceptor authInterceptor, ChannelExecutors channelExecutors,
+                           SlowConsumerGuard slowConsumerGuard) {
         this.authInterceptor = authInterceptor;
+        this.channelExecutors = channelExecutors;
+        this.slowConsumerGuard = slowConsumerGuard;
+    }
+
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy TaskScheduler messageBrokerTaskScheduler) {
+        this.messageBrokerTaskScheduler = messageBrokerTaskScheduler;
     }
 
     @Override
@@ -25,15 +106,86 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .withSockJS();
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Per-session priority lanes and byte/time budgets (see SlowConsumerGuard)
+        registration.addDecoratorFactory(slowConsumerGuard);
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic", "/queue", "/user");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            var relay = registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setClientLogin(clientLogin)
+                    .setClientPasscode(clientPasscode)
+                    .setSystemLogin(systemLogin)
+                    .setSystemPasscode(systemPasscode)
+                    .setSystemHeartbeatSendInterval(heartbeatSendMs)
+                    .setSystemHeartbeatReceiveInterval(heartbeatReceiveMs)
+                    .setTcpClient(relayTcpClient())
+                    // Messages to a user connected to another node are resolved there
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Heartbeats let the broker detect dead connections, which then count as disconnects for presence
+            registry.enableSimpleBroker("/topic", "/queue", "/user")
+                    .setHeartbeatValue(new long[]{clientHeartbeatSendMs, clientHeartbeatReceiveMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+        }
+        // Synchronous by default: the broker only matches subscriptions and hands off to the outbound channel
+        Executor brokerExecutor = channelExecutors.create("broker", 0, 10_000);
+        if (brokerExecutor != null) {
+            registry.configureBrokerChannel().executor(brokerExecutor);
+        }
         registry.setApplicationDestinationPrefixes("/app");
         registry.setUserDestinationPrefix("/user");
     }
 
+    /**
+     * The relay opens one TCP connection per client session plus a shared "system" connection.
+     * They come from a bounded pool with a connect timeout, so a slow broker cannot pile up
+     * unbounded pending connections.
+     */
+    private ReactorNettyTcpClient<byte[]> relayTcpClient() {
+        relayConnections = ConnectionProvider.builder("stomp-relay")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        relayLoops = LoopResources.create("stomp-relay");
+        TcpClient tcpClient = TcpClient.create(relayConnections)
+                .host(relayHost)
+                .port(relayPort)
+                .runOn(relayLoops, false)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true);
+        return new ReactorNettyTcpClient<>(tcpClient, new StompReactorNettyCodec());
+    }
+
+    @Override
+    public void destroy() {
+        if (relayConnections != null) relayConnections.disposeLater().block(Duration.ofSeconds(5));
+        if (relayLoops != null) relayLoops.disposeLater().block(Duration.ofSeconds(5));
+    }
+
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         registration.interceptors(authInterceptor);
+        // Serial per conversation, parallel across conversations
+        Executor executor = channelExecutors.ordered("inbound", channelExecutors.create("inbound", CORES * 2, 10_000));
+        if (executor != null) {
+            registration.executor(executor);
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        Executor executor = channelExecutors.create("outbound", CORES * 2, 10_000);
+        if (executor != null) {
+            registration.executor(executor);
+        }
     }
 }
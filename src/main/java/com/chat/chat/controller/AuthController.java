@@ -6,20 +6,25 @@ import com.chat.chat.dto.SignupRequest;
 import com.chat.chat.dto.GoogleAuthRequest;
 import com.chat.chat.model.User;
 import com.chat.chat.repository.UserRepository;
+import com.chat.chat.security.ChatPrincipal;
+import com.chat.chat.security.GoogleTokenVerifier;
 import com.chat.chat.security.JwtUtil;
+import com.chat.chat.security.PasswordHashingExecutor;
+import com.chat.chat.service.ContactSearchIndex;
+import com.chat.chat.service.MediaStore;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/auth")
@@ -30,79 +35,104 @@ public class AuthController {
     private final JwtUtil jwtUtil;
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingExecutor passwordHashing;
+    private final GoogleTokenVerifier googleTokenVerifier;
+    private final ContactSearchIndex contactSearchIndex;
+    private final MediaStore mediaStore;
 
+    /** The BCrypt check (and a rehash when the strength was raised) runs on the hashing pool. */
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody LoginRequest request) {
-        try {
-            Authentication auth = authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(request.getEmail(), request.getPassword())
-            );
-        } catch (Exception e) {
-            throw new BadCredentialsException("Invalid credentials");
-        }
-        User u = userRepository.findByEmail(request.getEmail()).orElseThrow();
-        Map<String, Object> claims = new HashMap<>();
-        claims.put("roles", u.getRoles());
-        String token = jwtUtil.generateToken(u.getEmail(), claims);
-        return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
+    public CompletableFuture<ResponseEntity<?>> login(@RequestBody LoginRequest request) {
+        return passwordHashing.submit("login", () -> {
+            try {
+                authenticationManager.authenticate(
+                        new UsernamePasswordAuthenticationToken(request.getEmail(), request.getPassword())
+                );
+            } catch (Exception e) {
+                throw new BadCredentialsException("Invalid credentials");
+            }
+            User u = userRepository.findByEmail(request.getEmail()).orElseThrow();
+            String token = issueToken(u);
+            return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
+        });
     }
 
     @PostMapping("/signup")
-    public ResponseEntity<?> signup(@RequestBody SignupRequest request) {
+    public CompletableFuture<ResponseEntity<?>> signup(@RequestBody SignupRequest request) {
         if (userRepository.findByEmail(request.getEmail()).isPresent()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Email already in use"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "Email already in use")));
         }
-        User u = User.builder()
-                .name(request.getName())
-                .email(request.getEmail())
-                .password(passwordEncoder.encode(request.getPassword()))
-                .roles("USER")
-                .avatar(request.getAvatar())
-                .online(true)
-                .statusMessage("Disponible pour discuter 💬")
-                .build();
-        u = userRepository.save(u);
+        return passwordHashing.submit("signup", () -> {
+            User u = User.builder()
+                    .name(request.getName())
+                    .email(request.getEmail())
+                    .password(passwordEncoder.encode(request.getPassword()))
+                    .roles("USER")
+                    .avatar(request.getAvatar())
+                    .online(true)
+                    .statusMessage("Disponible pour discuter 💬")
+                    .build();
+            u = userRepository.save(u);
+            mediaStore.replaceReference(null, u.getAvatar());
+            contactSearchIndex.upsert(u);
 
-        Map<String, Object> claims = new HashMap<>();
-        claims.put("roles", u.getRoles());
-        String token = jwtUtil.generateToken(u.getEmail(), claims);
-        return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
+            String token = issueToken(u);
+            return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
+        });
+    }
+
+    /** Hashing pool full: the client retries later instead of holding a request thread. */
+    @ExceptionHandler(PasswordHashingExecutor.SaturatedException.class)
+    public ResponseEntity<Map<String, String>> saturated(PasswordHashingExecutor.SaturatedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", "Too many sign-in attempts, retry shortly"));
     }
 
+    /** The ID token is verified locally against Google's cached signing keys. */
     @PostMapping("/google")
-    public Mono<ResponseEntity<?>> google(@RequestBody GoogleAuthRequest request) {
-        // Vérifier l'id_token côté Google
-        WebClient client = WebClient.create("https://oauth2.googleapis.com");
-        return client.get()
-                .uri(uriBuilder -> uriBuilder
-                        .path("/tokeninfo")
-                        .queryParam("id_token", request.getIdToken())
-                        .build())
-                .retrieve()
-                .bodyToMono(Map.class)
-                .map(body -> {
-                    String email = (String) body.get("email");
-                    String name = (String) body.getOrDefault("name", "Google User");
-                    String picture = (String) body.get("picture");
-                    if (email == null) {
-                        return ResponseEntity.badRequest().body(Map.of("error", "Invalid Google token"));
-                    }
-                    User u = userRepository.findByEmail(email).orElseGet(() -> {
-                        User nu = User.builder()
-                                .name(name)
-                                .email(email)
-                                .password(passwordEncoder.encode("google-login"))
-                                .roles("USER")
-                                .avatar(picture)
-                                .online(true)
-                                .statusMessage("Disponible pour discuter 💬")
-                                .build();
-                        return userRepository.save(nu);
-                    });
-                    Map<String, Object> claims = new HashMap<>();
-                    claims.put("roles", u.getRoles());
-                    String token = jwtUtil.generateToken(u.getEmail(), claims);
-                    return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
-                });
+    public CompletableFuture<ResponseEntity<?>> google(@RequestBody GoogleAuthRequest request) {
+        if (!googleTokenVerifier.isConfigured()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Google sign-in is not configured")));
+        }
+        GoogleTokenVerifier.GoogleIdentity identity = googleTokenVerifier.verify(request.getIdToken()).orElse(null);
+        if (identity == null) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "Invalid Google token")));
+        }
+        User existing = userRepository.findByEmail(identity.email()).orElse(null);
+        if (existing != null) {
+            return CompletableFuture.completedFuture(googleLogin(existing));
+        }
+        // First login: the placeholder password is hashed on the hashing pool
+        return passwordHashing.submit("signup", () -> {
+            User nu = User.builder()
+                    .name(identity.name())
+                    .email(identity.email())
+                    .password(passwordEncoder.encode("google-login"))
+                    .roles("USER")
+                    .avatar(identity.picture())
+                    .online(true)
+                    .statusMessage("Disponible pour discuter 💬")
+                    .build();
+            User saved = userRepository.save(nu);
+            contactSearchIndex.upsert(saved);
+            return googleLogin(saved);
+        });
+    }
+
+    private ResponseEntity<?> googleLogin(User u) {
+        String token = issueToken(u);
+        return ResponseEntity.ok(new AuthResponse(token, u.getId(), u.getName(), u.getEmail(), u.getAvatar()));
+    }
+
+    /** The claims carry everything the filters need to authenticate without a user lookup. */
+    private String issueToken(User u) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(ChatPrincipal.UID_CLAIM, u.getId());
+        claims.put(ChatPrincipal.ROLES_CLAIM, u.getRoles());
+        return jwtUtil.generateToken(u.getEmail(), claims);
     }
 }
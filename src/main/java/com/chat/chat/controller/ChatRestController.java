@@ -4,9 +4,15 @@ import com.chat.chat.dto.ChatMessage;
 import com.chat.chat.mapper.MessageMapper;
 import com.chat.chat.model.Message;
 import com.chat.chat.service.ConversationService;
+import com.chat.chat.service.CurrentUserService;
+import com.chat.chat.service.MessageDraft;
+import com.chat.chat.service.MessageSearchService;
 import com.chat.chat.service.MessageService;
-import com.chat.chat.repository.UserRepository;
+import com.chat.chat.service.MessageWriteBehind;
+import com.chat.chat.service.RecentMessageCache;
+import com.chat.chat.service.ReadStateService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.core.Authentication;
@@ -15,6 +21,9 @@ import org.springframework.web.multipart.MultipartFile;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api")
@@ -23,7 +32,11 @@ public class ChatRestController {
 
     private final ConversationService conversationService;
     private final MessageService messageService;
-    private final UserRepository userRepository;
+    private final MessageWriteBehind messageWriteBehind;
+    private final ReadStateService readStateService;
+    private final RecentMessageCache recentMessageCache;
+    private final CurrentUserService currentUserService;
+    private final MessageSearchService messageSearchService;
 
     @GetMapping("/conversations")
     public ResponseEntity<?> conversations() {
@@ -36,23 +49,61 @@ public class ChatRestController {
     }
 
     @GetMapping("/conversations/{id}/messages")
-    public ResponseEntity<List<ChatMessage>> messages(@PathVariable Long id) {
-        List<ChatMessage> dto = messageService.getMessages(id).stream().map(MessageMapper::toDto).toList();
+    public ResponseEntity<List<ChatMessage>> messages(@PathVariable Long id,
+                                                      @RequestParam(required = false) Long before,
+                                                      @RequestParam(required = false) Long after,
+                                                      @RequestParam(defaultValue = "" + MessageService.DEFAULT_PAGE_SIZE) int limit) {
+        // Opening a conversation (no cursor) is served from the hot tail when possible
+        List<ChatMessage> dto = before == null && after == null
+                ? recentMessageCache.latest(id, Math.max(1, limit)).orElse(null)
+                : null;
+        if (dto == null) {
+            dto = messageService.getMessages(id, before, after, limit).stream().map(MessageMapper::toDto).toList();
+        }
+        readStateService.applyReadStatus(id, dto);
         return ResponseEntity.ok(dto);
     }
 
     @PostMapping("/conversations/{id}/messages")
     public ResponseEntity<ChatMessage> send(@PathVariable Long id, @RequestBody ChatMessage inbound) {
         Message.Type type = inbound.getType() == null ? Message.Type.TEXT : Message.Type.valueOf(inbound.getType().toUpperCase());
-        Message saved = messageService.sendMessage(id, Long.valueOf(inbound.getSenderId()), inbound.getText(), type, inbound.getMediaUrl());
+        Message saved = await(messageWriteBehind.submit(new MessageDraft(id, Long.valueOf(inbound.getSenderId()), inbound.getText(), type, inbound.getMediaUrl())));
         ChatMessage dto = MessageMapper.toDto(saved);
+        recentMessageCache.append(dto);
         return ResponseEntity.created(URI.create("/api/conversations/" + id + "/messages/" + dto.getId())).body(dto);
     }
 
+    /**
+     * Full-text search in the caller's conversations, or in one of them: words are all required,
+     * {@code word*} matches a prefix and {@code "two words"} a phrase. Newest first; pass the
+     * last id as {@code before} for older results.
+     */
+    @GetMapping("/messages/search")
+    public ResponseEntity<List<ChatMessage>> search(@RequestParam String q,
+                                                    @RequestParam(required = false) Long conversationId,
+                                                    @RequestParam(required = false) Long before,
+                                                    @RequestParam(defaultValue = "" + MessageSearchService.DEFAULT_LIMIT) int limit,
+                                                    Authentication authentication) {
+        Long meId = currentUserService.id(authentication);
+        if (meId == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (conversationId != null && !messageSearchService.isParticipant(meId, conversationId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(messageSearchService.search(meId, q, conversationId, before, limit));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
     @PostMapping("/conversations/with/{userId}")
     public ResponseEntity<Map<String, Object>> with(@PathVariable Long userId, Authentication authentication) {
-        String email = authentication.getName();
-        Long meId = userRepository.findByEmail(email).orElseThrow().getId();
+        Long meId = Optional.ofNullable(currentUserService.id(authentication)).orElseThrow();
         var conv = conversationService.findOrCreateDirect(meId, userId);
         return ResponseEntity.ok(Map.of("id", conv.getId()));
     }
@@ -1,70 +1,127 @@
 package com.chat.chat.controller;
 
+import com.chat.chat.config.ChannelExecutors;
+import com.chat.chat.config.OrderedChannelExecutor;
 import com.chat.chat.dto.ChatMessage;
 import com.chat.chat.dto.ReadReceipt;
 import com.chat.chat.dto.TypingEvent;
 import com.chat.chat.mapper.MessageMapper;
 import com.chat.chat.model.Message;
+import com.chat.chat.service.BroadcastService;
+import com.chat.chat.service.CurrentUserService;
+import com.chat.chat.service.MessageDraft;
 import com.chat.chat.service.MessageService;
-import com.chat.chat.service.PresenceService;
-import lombok.RequiredArgsConstructor;
+import com.chat.chat.service.MessageWriteBehind;
+import com.chat.chat.service.ParticipantIndex;
+import com.chat.chat.service.RecentMessageCache;
+import com.chat.chat.service.TypingAggregator;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Slf4j
 @Controller
-@RequiredArgsConstructor
 public class ChatWsController {
 
     private final SimpMessagingTemplate messagingTemplate;
     private final MessageService messageService;
-    private final PresenceService presenceService;
+    private final MessageWriteBehind messageWriteBehind;
+    private final TypingAggregator typingAggregator;
+    private final RecentMessageCache recentMessageCache;
+    private final ParticipantIndex participantIndex;
+    private final BroadcastService broadcastService;
+    private final CurrentUserService currentUserService;
+    private final OrderedChannelExecutor fanOut;
+
+    public ChatWsController(SimpMessagingTemplate messagingTemplate, MessageService messageService,
+                            MessageWriteBehind messageWriteBehind, TypingAggregator typingAggregator,
+                            RecentMessageCache recentMessageCache, ParticipantIndex participantIndex,
+                            BroadcastService broadcastService, CurrentUserService currentUserService,
+                            ChannelExecutors channelExecutors) {
+        this.messagingTemplate = messagingTemplate;
+        this.messageService = messageService;
+        this.messageWriteBehind = messageWriteBehind;
+        this.typingAggregator = typingAggregator;
+        this.recentMessageCache = recentMessageCache;
+        this.participantIndex = participantIndex;
+        this.broadcastService = broadcastService;
+        this.currentUserService = currentUserService;
+        // Fan-out leaves the write-behind thread, in send order within each conversation
+        this.fanOut = channelExecutors.keyed("fanout", Runtime.getRuntime().availableProcessors() * 2, 10_000);
+    }
 
     @MessageMapping("/chat.send/{conversationId}")
-    @Transactional
     public void send(@DestinationVariable String conversationId, @Payload ChatMessage inbound) {
         Long convId = Long.valueOf(conversationId);
         Long senderId = inbound.getSenderId() == null ? null : Long.valueOf(inbound.getSenderId());
         Message.Type type = inbound.getType() == null ? Message.Type.TEXT : Message.Type.valueOf(inbound.getType().toUpperCase());
-        Message saved = messageService.sendMessage(convId, senderId, inbound.getText(), type, inbound.getMediaUrl());
+        // Fan-out only happens once the message is committed
+        messageWriteBehind.submit(new MessageDraft(convId, senderId, inbound.getText(), type, inbound.getMediaUrl()))
+                .thenAcceptAsync(saved -> broadcast(conversationId, senderId, saved), task -> fanOut.execute(convId, task))
+                .exceptionally(e -> {
+                    log.error("Failed to send message to conversation {}: {}", conversationId, e.getMessage(), e);
+                    return null;
+                });
+    }
+
+    private void broadcast(String conversationId, Long senderId, Message saved) {
+        Long convId = Long.valueOf(conversationId);
         ChatMessage dto = MessageMapper.toDto(saved);
         // Ensure conversationId is present on the DTO for clients relying on it
         if (dto.getConversationId() == null) {
             dto.setConversationId(String.valueOf(convId));
         }
+        recentMessageCache.append(dto);
 
+        long[] participants = participantIndex.participants(convId);
+        List<String> destinations = new ArrayList<>(participants.length + 1);
         // 1) Broadcast to the conversation topic (clients inside the conversation)
-        messagingTemplate.convertAndSend("/topic/conversations/" + conversationId, dto);
-
+        destinations.add("/topic/conversations/" + conversationId);
         // 2) Publish per-user inbox notifications for participants other than the sender
-        if (saved.getConversation() != null && saved.getConversation().getParticipants() != null) {
-            for (var user : saved.getConversation().getParticipants()) {
-                if (user == null || user.getId() == null) continue;
-                if (senderId != null && user.getId().equals(senderId)) continue; // don't notify the sender
-                messagingTemplate.convertAndSend("/topic/users/" + user.getId() + "/messages", dto);
-            }
+        for (long userId : participants) {
+            if (senderId != null && userId == senderId) continue; // don't notify the sender
+            destinations.add("/topic/users/" + userId + "/messages");
         }
+        // Serialized once for all destinations
+        broadcastService.broadcast(dto, destinations);
     }
 
     @MessageMapping("/chat.typing/{conversationId}")
     public void typing(@DestinationVariable String conversationId, @Payload TypingEvent event) {
-        Long convId = Long.valueOf(conversationId);
-        Long userId = Long.valueOf(event.getUserId());
-        presenceService.setTyping(convId, userId, event.isTyping());
-        messagingTemplate.convertAndSend("/topic/conversations/" + conversationId + "/typing", event);
+        // Published by the aggregator, at most once per interval with everyone typing
+        typingAggregator.update(Long.valueOf(conversationId), Long.valueOf(event.getUserId()), event.isTyping());
     }
 
+    /**
+     * Moves the caller's read watermark. The reader is the authenticated user, never the payload:
+     * receipts naming someone else, or for a conversation the caller is not in, are ignored.
+     */
     @MessageMapping("/chat.read")
-    public void read(@Payload ReadReceipt receipt) {
-        if (receipt.getMessageId() != null) {
-            try {
-                Long messageId = Long.valueOf(receipt.getMessageId());
-                messageService.markRead(messageId);
-            } catch (NumberFormatException ignored) {}
+    public void read(@Payload ReadReceipt receipt, Principal principal) {
+        Long readerId = currentUserService.id(principal);
+        if (readerId == null || receipt.getMessageId() == null || receipt.getConversationId() == null) return;
+        if (receipt.getReaderId() != null && !receipt.getReaderId().equals(String.valueOf(readerId))) {
+            log.warn("User {} sent a read receipt on behalf of {}: ignored", readerId, receipt.getReaderId());
+            return;
+        }
+        try {
+            Long messageId = Long.valueOf(receipt.getMessageId());
+            Long conversationId = Long.valueOf(receipt.getConversationId());
+            if (Arrays.binarySearch(participantIndex.participants(conversationId), readerId) < 0) return;
+            // One watermark update covers every message up to this one
+            messageService.markRead(conversationId, readerId, messageId);
+        } catch (NumberFormatException e) {
+            return;
         }
+        receipt.setReaderId(String.valueOf(readerId));
         messagingTemplate.convertAndSend("/topic/conversations/" + receipt.getConversationId() + "/read", receipt);
     }
 }
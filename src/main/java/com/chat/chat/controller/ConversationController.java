@@ -1,21 +1,24 @@
 package com.chat.chat.controller;
 
 import com.chat.chat.dto.ConversationSummaryDto;
-import com.chat.chat.model.User;
-import com.chat.chat.repository.UserRepository;
 import com.chat.chat.service.ConversationSummaryService;
+import com.chat.chat.service.CurrentUserService;
+import com.chat.chat.service.InboxService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 
+@Slf4j
 @CrossOrigin(origins = {"*"})
 @RestController
 @RequestMapping("/api/conversations")
@@ -23,39 +26,33 @@ import java.util.Optional;
 public class ConversationController {
 
     private final ConversationSummaryService conversationSummaryService;
-    private final UserRepository userRepository;
+    private final CurrentUserService currentUserService;
 
     @GetMapping("/summary")
-    public ResponseEntity<List<ConversationSummaryDto>> getConversationSummaries() {
+    public ResponseEntity<List<ConversationSummaryDto>> getConversationSummaries(
+            @RequestParam(required = false) Instant before,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(defaultValue = "" + InboxService.DEFAULT_PAGE_SIZE) int limit) {
         try {
             Authentication auth = SecurityContextHolder.getContext().getAuthentication();
             Long currentUserId = 1L; // Utilisateur par défaut pour les tests
-            
-            System.out.println("[ConversationController] Auth: " + (auth != null ? auth.getName() : "null"));
-            
+
             // Si authentifié, utiliser le vrai utilisateur
             if (auth != null && auth.isAuthenticated() && !"anonymousUser".equals(auth.getName())) {
-                String email = auth.getName();
-                Optional<User> userOpt = userRepository.findByEmail(email);
-                
-                if (userOpt.isPresent()) {
-                    currentUserId = userOpt.get().getId();
-                    System.out.println("[ConversationController] Using authenticated user ID: " + currentUserId);
+                Long userId = currentUserService.id(auth);
+
+                if (userId != null) {
+                    currentUserId = userId;
                 } else {
-                    System.out.println("[ConversationController] User not found for email: " + email);
+                    log.warn("User not found for email: {}", auth.getName());
                 }
-            } else {
-                System.out.println("[ConversationController] Using default user ID: " + currentUserId);
             }
 
-            List<ConversationSummaryDto> summaries = conversationSummaryService.getConversationSummariesForUser(currentUserId);
-            System.out.println("[ConversationController] Found " + summaries.size() + " conversations");
-            
+            List<ConversationSummaryDto> summaries = conversationSummaryService.getConversationSummariesForUser(currentUserId, before, beforeId, limit);
             return ResponseEntity.ok(summaries);
         } catch (Exception e) {
-            System.err.println("[ConversationController] Error: " + e.getMessage());
-            e.printStackTrace();
-            
+            log.error("Failed to load conversation summaries", e);
+
             // Retourner une liste vide en cas d'erreur pour éviter le crash
             return ResponseEntity.ok(List.of());
         }
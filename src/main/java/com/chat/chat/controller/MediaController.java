@@ -1,52 +1,83 @@
 package com.chat.chat.controller;
 
 import com.chat.chat.model.Media;
-import com.chat.chat.model.User;
-import com.chat.chat.repository.MediaRepository;
-import com.chat.chat.repository.UserRepository;
+import com.chat.chat.model.UploadSession;
+import com.chat.chat.service.CurrentUserService;
+import com.chat.chat.service.MediaMetadataCache;
+import com.chat.chat.service.MediaStore;
+import com.chat.chat.service.MediaUploadService;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.core.Authentication;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Files;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.time.LocalDateTime;
 
 @Slf4j
-@CrossOrigin(origins = {"*"}, allowedHeaders = "*", exposedHeaders = "Content-Disposition")
+@CrossOrigin(origins = {"*"}, allowedHeaders = "*", exposedHeaders = {"Content-Disposition", "Location", "Upload-Offset", "Upload-Length", "ETag", "Content-Range", "Accept-Ranges"})
 @RestController
 @RequestMapping("/api/media")
 public class MediaController {
 
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+
+    // Request attributes through which Tomcat sends a file with sendfile (see its DefaultServlet);
+    // below SENDFILE_MIN_BYTES a plain write is cheaper
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+
+    private static final Duration IMMUTABLE_MAX_AGE = Duration.ofDays(365);
+    private static final Duration MUTABLE_MAX_AGE = Duration.ofDays(1);
+
     @Value("${app.upload.dir:uploads}")
     private String uploadDir;
 
-    private final MediaRepository mediaRepository;
-    private final UserRepository userRepository;
+    private final MediaMetadataCache mediaMetadataCache;
+    private final CurrentUserService currentUserService;
+    private final MediaStore mediaStore;
+    private final MediaUploadService mediaUploadService;
 
     @Autowired
-    public MediaController(MediaRepository mediaRepository, UserRepository userRepository) {
-        this.mediaRepository = mediaRepository;
-        this.userRepository = userRepository;
+    public MediaController(MediaMetadataCache mediaMetadataCache, CurrentUserService currentUserService,
+                           MediaStore mediaStore, MediaUploadService mediaUploadService) {
+        this.mediaMetadataCache = mediaMetadataCache;
+        this.currentUserService = currentUserService;
+        this.mediaStore = mediaStore;
+        this.mediaUploadService = mediaUploadService;
     }
 
     @PostMapping("/test-upload")
@@ -101,82 +132,25 @@ public class MediaController {
                         ));
             }
 
-            // Déterminer le type de média avec plus de précision
-            String contentType = file.getContentType();
-            String mediaType = "document";
-            if (contentType != null) {
-                if (contentType.startsWith("image/")) {
-                    mediaType = "image";
-                } else if (contentType.startsWith("video/")) {
-                    mediaType = "video";
-                } else if (contentType.startsWith("audio/")) {
-                    mediaType = "audio";
-                } else if (contentType.equals("application/pdf")) {
-                    mediaType = "pdf";
-                } else if (contentType.startsWith("application/") ||
-                           contentType.startsWith("text/") ||
-                           contentType.equals("application/msword") ||
-                           contentType.equals("application/vnd.openxmlformats-officedocument.wordprocessingml.document") ||
-                           contentType.equals("application/vnd.ms-excel") ||
-                           contentType.equals("application/vnd.ms-powerpoint") ||
-                           contentType.equals("application/vnd.oasis.opendocument.text") ||
-                           contentType.equals("application/vnd.oasis.opendocument.spreadsheet") ||
-                           contentType.equals("application/vnd.oasis.opendocument.presentation")) {
-                    mediaType = "document";
-                }
-            }
-
-            // Créer le dossier d'upload/type s'il n'existe pas (ex: uploads/audio)
-            Path uploadPath = Paths.get(uploadDir, mediaType);
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
-                log.info("[MediaController] Created upload directory: {}", uploadPath);
-            }
-
-            // Générer un nom de fichier unique
-            String originalFilename = file.getOriginalFilename();
-            String extension = originalFilename != null && originalFilename.contains(".") 
-                ? originalFilename.substring(originalFilename.lastIndexOf("."))
-                : "";
-            String filename = UUID.randomUUID().toString() + extension;
-
-            // Sauvegarder le fichier
-            Path filePath = uploadPath.resolve(filename);
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-            log.info("[MediaController] File saved: {}", filePath);
-
-            
             // Optionally associate user if authenticated
-            User user = null;
+            Long userId = null;
             try {
-                if (authentication != null && authentication.getName() != null) {
-                    String email = authentication.getName();
-                    user = userRepository.findByEmail(email).orElse(null);
-                }
+                userId = currentUserService.id(authentication);
             } catch (Exception ignored) {}
 
-            // Persist Media entity
-            String url = "/api/media/files/" + mediaType + "/" + filename;
-
-            Media media = Media.builder()
-                    .originalName(originalFilename)
-                    .storedName(filename)
-                    .fileType(mediaType)
-                    .mimeType(contentType)
-                    .size(file.getSize())
-                    .url(url)
-                    .uploadTime(LocalDateTime.now())
-                    .user(user)
-                    .build();
-            media = mediaRepository.save(media);
+            // Stored under its content hash: a file already uploaded is not written again
+            MediaStore.Stored stored = mediaStore.store(file, userId);
+            Media media = stored.media();
+            log.info("[MediaController] File {}: {}", stored.duplicate() ? "already stored" : "saved", media.getUrl());
 
             Map<String, Object> response = new HashMap<>();
             response.put("id", media.getId());
-            response.put("filename", filename);
-            response.put("originalName", originalFilename);
-            response.put("url", url);
-            response.put("type", mediaType);
-            response.put("size", file.getSize());
+            response.put("filename", media.getStoredName());
+            response.put("originalName", file.getOriginalFilename());
+            response.put("url", media.getUrl());
+            response.put("type", media.getFileType());
+            response.put("size", media.getSize());
+            response.put("sha256", media.getContentHash());
 
             log.info("File uploaded and persisted successfully: {}", response);
             return ResponseEntity.ok(response);
@@ -188,6 +162,90 @@ public class MediaController {
         }
     }
 
+    // Resumable uploads (tus-like): POST creates the upload, PATCH appends a chunk at
+    // Upload-Offset, HEAD reads the offset back after a dropped connection, complete publishes it.
+
+    @PostMapping("/uploads")
+    public ResponseEntity<Map<String, Object>> createUpload(@RequestBody Map<String, Object> body,
+                                                            Authentication authentication) throws IOException {
+        Object length = body.get("length");
+        if (!(length instanceof Number)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "length is required"));
+        }
+        Object filename = body.get("filename");
+        Object contentType = body.get("contentType");
+        if ((filename != null && !(filename instanceof String)) || (contentType != null && !(contentType instanceof String))) {
+            return ResponseEntity.badRequest().body(Map.of("error", "filename and contentType must be strings"));
+        }
+        UploadSession session = mediaUploadService.create(currentUserService.id(authentication),
+                (String) filename, (String) contentType, ((Number) length).longValue());
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", session.getId());
+        response.put("offset", session.getUploadOffset());
+        response.put("length", session.getUploadLength());
+        response.put("expiresAt", session.getExpiresAt());
+        return ResponseEntity.created(URI.create("/api/media/uploads/" + session.getId()))
+                .header(UPLOAD_OFFSET, "0")
+                .body(response);
+    }
+
+    @RequestMapping(value = "/uploads/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> uploadStatus(@PathVariable String id, Authentication authentication) {
+        UploadSession session = mediaUploadService.status(id, currentUserService.id(authentication));
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(session.getUploadOffset()))
+                .header(UPLOAD_LENGTH, String.valueOf(session.getUploadLength()))
+                .cacheControl(CacheControl.noStore())
+                .build();
+    }
+
+    /** The body is streamed to the part file as it arrives: no multipart parsing, no spooling. */
+    @PatchMapping(value = "/uploads/{id}", consumes = "application/offset+octet-stream")
+    public ResponseEntity<Void> appendChunk(@PathVariable String id,
+                                            @RequestHeader(UPLOAD_OFFSET) long offset,
+                                            HttpServletRequest request,
+                                            Authentication authentication) throws IOException {
+        long newOffset = mediaUploadService.append(id, currentUserService.id(authentication), offset, request.getInputStream());
+        return ResponseEntity.noContent().header(UPLOAD_OFFSET, String.valueOf(newOffset)).build();
+    }
+
+    @PostMapping("/uploads/{id}/complete")
+    public ResponseEntity<Map<String, Object>> completeUpload(@PathVariable String id,
+                                                              @RequestParam(required = false) String sha256,
+                                                              Authentication authentication) throws IOException {
+        MediaUploadService.CompletedUpload upload = mediaUploadService.complete(id, currentUserService.id(authentication), sha256);
+        Media media = upload.media();
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", media.getId());
+        response.put("filename", media.getStoredName());
+        response.put("originalName", upload.originalName());
+        response.put("url", media.getUrl());
+        response.put("type", media.getFileType());
+        response.put("size", media.getSize());
+        response.put("sha256", upload.sha256());
+        return ResponseEntity.ok(response);
+    }
+
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable String id, Authentication authentication) throws IOException {
+        mediaUploadService.cancel(id, currentUserService.id(authentication));
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(MediaUploadService.UploadException.class)
+    public ResponseEntity<Map<String, Object>> uploadRefused(MediaUploadService.UploadException e) {
+        HttpStatus status = switch (e.getReason()) {
+            case INVALID, CHECKSUM_MISMATCH -> HttpStatus.BAD_REQUEST;
+            case NOT_FOUND -> HttpStatus.NOT_FOUND;
+            case FORBIDDEN -> HttpStatus.FORBIDDEN;
+            case BUSY, OFFSET_MISMATCH, INCOMPLETE -> HttpStatus.CONFLICT;
+            case TOO_LARGE -> HttpStatus.PAYLOAD_TOO_LARGE;
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+        if (e.getOffset() >= 0) response.header(UPLOAD_OFFSET, String.valueOf(e.getOffset()));
+        return response.body(Map.of("error", e.getMessage()));
+    }
+
     /**
      * Logs request details for debugging purposes
      */
@@ -219,62 +277,129 @@ public class MediaController {
         }
     }
 
+    /**
+     * Serves a stored file. The body never passes through the heap: Tomcat sends it with
+     * sendfile when the connector supports it, otherwise it goes through
+     * {@link FileChannel#transferTo}. Single and multiple ranges are supported (If-Range
+     * included), the ETag is the content hash, or the stored name for older files, and
+     * If-None-Match gets a 304. Content-addressed files never change, so clients cache them
+     * as immutable. The content type is the one recorded at upload.
+     */
     @GetMapping("/files/{type}/{filename:.+}")
-    public ResponseEntity<Resource> getFile(@PathVariable String type, @PathVariable String filename) {
-        try {
-            log.debug("Request to download file: {}", filename);
-            
-            // Security check to prevent directory traversal
-            if (filename.contains("..")) {
-                log.warn("Invalid file path requested: {}", filename);
-                return ResponseEntity.badRequest().build();
+    public void getFile(@PathVariable String type, @PathVariable String filename,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Security check to prevent directory traversal
+        if (!type.matches("[a-z]+") || filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
+            log.warn("Invalid file path requested: {}/{}", type, filename);
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        Path filePath = Paths.get(uploadDir).resolve(type).resolve(filename);
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long length = channel.size();
+            MediaMetadataCache.StoredFile stored = mediaMetadataCache.lookup("/api/media/files/" + type + "/" + filename);
+            String etag = "\"" + (stored.contentHash() != null ? stored.contentHash() : filename.replaceAll("[^A-Za-z0-9._-]", "")) + "\"";
+            CacheControl cacheControl = stored.contentHash() != null
+                    ? CacheControl.maxAge(IMMUTABLE_MAX_AGE).cachePublic().immutable()
+                    : CacheControl.maxAge(MUTABLE_MAX_AGE).cachePublic();
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+                return; // 304, ETag set
             }
-            
-            Path filePath = Paths.get(uploadDir).resolve(type).resolve(filename).normalize();
-            
-            // Additional security check
-            if (!filePath.startsWith(Paths.get(uploadDir).resolve(type).normalize())) {
-                log.warn("Directory traversal attempt detected: {}", filename);
-                return ResponseEntity.badRequest().build();
+
+            String contentType = stored.contentType().toString();
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+
+            List<HttpRange> ranges = List.of();
+            String range = request.getHeader(HttpHeaders.RANGE);
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            if (range != null && (ifRange == null || ifRange.equals(etag))) { // else the file changed: send all of it
+                try {
+                    ranges = HttpRange.parseRanges(range);
+                } catch (IllegalArgumentException e) {
+                    // malformed: ignored, the whole file is sent
+                }
+            }
+            if (ranges.isEmpty()) {
+                response.setStatus(HttpStatus.OK.value());
+                send(request, response, filePath, channel, 0, length);
+                return;
             }
 
-            Resource resource = new UrlResource(filePath.toUri());
+            long[] starts = new long[ranges.size()];
+            long[] ends = new long[ranges.size()];
+            long total = 0;
+            for (int r = 0; r < ranges.size(); r++) {
+                starts[r] = ranges.get(r).getRangeStart(length);
+                ends[r] = ranges.get(r).getRangeEnd(length);
+                total += starts[r] < length ? ends[r] - starts[r] + 1 : length + 1; // starting past the end
+            }
+            if (total > length) {
+                // Unsatisfiable, or overlapping ranges asking for more than the file
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setContentLength(0);
+                return;
+            }
 
-            if (!resource.exists() || !resource.isReadable()) {
-                log.warn("File not found or not readable: {}", filename);
-                return ResponseEntity.notFound().build();
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            if (ranges.size() == 1) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + starts[0] + "-" + ends[0] + "/" + length);
+                send(request, response, filePath, channel, starts[0], ends[0] - starts[0] + 1);
+                return;
             }
-            
-            // Determine content type
-            String contentType;
-            try {
-                contentType = Files.probeContentType(filePath);
-                if (contentType == null) {
-                    if (filename.endsWith(".pdf")) {
-                        contentType = "application/pdf";
-                    } else if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png")) {
-                        contentType = "image/jpeg";
-                    } else {
-                        contentType = "application/octet-stream";
-                    }
-                }
-            } catch (IOException ex) {
-                contentType = "application/octet-stream";
+
+            String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            byte[][] partHeaders = new byte[ranges.size()][];
+            byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            long contentLength = closing.length;
+            for (int r = 0; r < ranges.size(); r++) {
+                partHeaders[r] = ("\r\n--" + boundary + "\r\n"
+                        + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                        + HttpHeaders.CONTENT_RANGE + ": bytes " + starts[r] + "-" + ends[r] + "/" + length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                contentLength += partHeaders[r].length + ends[r] - starts[r] + 1;
+            }
+            response.setContentLengthLong(contentLength);
+            if (HttpMethod.HEAD.matches(request.getMethod())) return;
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel body = Channels.newChannel(out);
+            for (int r = 0; r < ranges.size(); r++) {
+                out.write(partHeaders[r]);
+                transfer(channel, starts[r], ends[r] - starts[r] + 1, body);
             }
+            out.write(closing);
+        } catch (NoSuchFileException e) {
+            log.warn("File not found: {}/{}", type, filename);
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
+    /** Sends {@code count} bytes from {@code start}, handing the file to Tomcat's sendfile when possible. */
+    private static void send(HttpServletRequest request, HttpServletResponse response, Path file,
+                             FileChannel channel, long start, long count) throws IOException {
+        response.setContentLengthLong(count);
+        if (HttpMethod.HEAD.matches(request.getMethod())) return;
+        if (count >= SENDFILE_MIN_BYTES && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toFile().getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        transfer(channel, start, count, Channels.newChannel(response.getOutputStream()));
+    }
 
-            log.debug("Serving file: {} (type: {})", filename, contentType);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                            "inline; filename=\"" + resource.getFilename() + "\"")
-                    .header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Disposition")
-                    .body(resource);
-                    
-        } catch (MalformedURLException e) {
-            log.error("Malformed URL for file: {}", filename, e);
-            return ResponseEntity.notFound().build();
-        } catch (IOException e) {
-            return ResponseEntity.internalServerError().build();
+    private static void transfer(FileChannel channel, long start, long count, WritableByteChannel target) throws IOException {
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) throw new EOFException("File truncated while being sent");
+            position += n;
         }
     }
 }
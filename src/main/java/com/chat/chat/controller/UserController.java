@@ -3,12 +3,24 @@ package com.chat.chat.controller;
 import com.chat.chat.dto.UserProfile;
 import com.chat.chat.model.User;
 import com.chat.chat.repository.UserRepository;
+import com.chat.chat.service.ContactSearchIndex;
+import com.chat.chat.service.CurrentUserService;
+import com.chat.chat.service.InboxService;
+import com.chat.chat.service.MediaStore;
+import com.chat.chat.service.PresenceService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @RestController
@@ -17,6 +29,11 @@ import java.util.stream.Collectors;
 public class UserController {
 
     private final UserRepository userRepository;
+    private final InboxService inboxService;
+    private final PresenceService presenceService;
+    private final CurrentUserService currentUserService;
+    private final ContactSearchIndex contactSearchIndex;
+    private final MediaStore mediaStore;
 
     @GetMapping("/me")
     public ResponseEntity<UserProfile> me(Authentication authentication) {
@@ -31,16 +48,10 @@ public class UserController {
                     true
             ));
         }
-        String email = authentication.getName();
-        User u = userRepository.findByEmail(email).orElseThrow();
-        return ResponseEntity.ok(new UserProfile(
-                u.getId(),
-                u.getName(),
-                u.getEmail(),
-                u.getAvatar(),
-                u.getStatusMessage(),
-                u.isOnline()
-        ));
+        Long userId = Optional.ofNullable(currentUserService.id(authentication)).orElseThrow();
+        UserProfile profile = currentUserService.profile(userId).orElseThrow();
+        profile.setOnline(presenceService.isOnline(userId));
+        return ResponseEntity.ok(profile);
     }
 
     public record AvatarUpdate(String url) {}
@@ -53,8 +64,12 @@ public class UserController {
         }
 
         final User u = resolveCurrentUser(authentication);
+        String previous = u.getAvatar();
         u.setAvatar(req.url());
         userRepository.save(u);
+        mediaStore.replaceReference(previous, u.getAvatar());
+        currentUserService.invalidate(u.getId());
+        inboxService.onProfileChange(u);
         return ResponseEntity.ok(new UserProfile(
                 u.getId(), u.getName(), u.getEmail(), u.getAvatar(), u.getStatusMessage(), u.isOnline()
         ));
@@ -68,6 +83,10 @@ public class UserController {
             if (req.statusMessage() != null) u.setStatusMessage(req.statusMessage());
         }
         userRepository.save(u);
+        currentUserService.invalidate(u.getId());
+        inboxService.onProfileChange(u);
+        contactSearchIndex.upsert(u);
+        presenceService.statusChanged(u.getId(), u.getStatusMessage());
         return ResponseEntity.ok(new UserProfile(
                 u.getId(), u.getName(), u.getEmail(), u.getAvatar(), u.getStatusMessage(), u.isOnline()
         ));
@@ -78,31 +97,42 @@ public class UserController {
             // fallback for tests: update the first user (id=1)
             return userRepository.findById(1L).orElseThrow();
         }
-        String email = authentication.getName();
-        return userRepository.findByEmail(email).orElseThrow();
+        return userRepository.findById(Optional.ofNullable(currentUserService.id(authentication)).orElseThrow()).orElseThrow();
     }
 
+    public static final int CONTACTS_PAGE_SIZE = 50;
+    public static final int CONTACTS_MAX_PAGE_SIZE = 200;
+
+    /** Contacts directory in id order; the next page starts after the last id received. */
     @GetMapping("/contacts")
-    public ResponseEntity<List<UserProfile>> contacts(Authentication authentication) {
-        final String myEmail;
-        
-        if (authentication != null && !"anonymousUser".equals(authentication.getName())) {
-            myEmail = authentication.getName();
-        } else {
-            myEmail = "test@example.com"; // Par défaut pour les tests
-        }
-        
-        List<UserProfile> contacts = userRepository.findAll().stream()
-                .filter(u -> !u.getEmail().equalsIgnoreCase(myEmail))
-                .map(u -> new UserProfile(
-                        u.getId(),
-                        u.getName(),
-                        u.getEmail(),
-                        u.getAvatar(),
-                        u.getStatusMessage(),
-                        u.isOnline()
-                ))
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(contacts);
+    public ResponseEntity<List<UserProfile>> contacts(@RequestParam(required = false) Long afterId,
+                                                      @RequestParam(defaultValue = "" + CONTACTS_PAGE_SIZE) int limit,
+                                                      Authentication authentication) {
+        Long meId = currentUserService.id(authentication);
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, CONTACTS_MAX_PAGE_SIZE)));
+        List<UserProfile> contacts = userRepository.findProfilesAfter(
+                afterId == null ? 0L : afterId, meId == null ? 0L : meId, page);
+        return ResponseEntity.ok(withLivePresence(contacts));
+    }
+
+    /** Typeahead over names and emails, best matches first. */
+    @GetMapping("/contacts/search")
+    public ResponseEntity<List<UserProfile>> searchContacts(@RequestParam("q") String query,
+                                                            @RequestParam(defaultValue = "" + ContactSearchIndex.DEFAULT_LIMIT) int limit,
+                                                            Authentication authentication) {
+        List<Long> ids = contactSearchIndex.search(query, currentUserService.id(authentication), limit);
+        if (ids.isEmpty()) return ResponseEntity.ok(List.of());
+        Map<Long, UserProfile> byId = userRepository.findProfiles(ids).stream()
+                .collect(Collectors.toMap(UserProfile::getId, Function.identity()));
+        List<UserProfile> ranked = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+        return ResponseEntity.ok(withLivePresence(ranked));
+    }
+
+    /** Live status from the presence store (one bulk lookup) rather than the flushed column. */
+    private List<UserProfile> withLivePresence(List<UserProfile> profiles) {
+        long[] online = presenceService.onlineAmong(profiles.stream().mapToLong(UserProfile::getId).toArray());
+        Set<Long> onlineIds = Arrays.stream(online).boxed().collect(Collectors.toSet());
+        profiles.forEach(p -> p.setOnline(onlineIds.contains(p.getId())));
+        return profiles;
     }
 }
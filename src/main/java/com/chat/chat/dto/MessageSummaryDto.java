@@ -1,6 +1,10 @@
 package com.chat.chat.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
 public class MessageSummaryDto {
+    @JsonSerialize(using = ToStringSerializer.class) // 64-bit message ids exceed JavaScript's safe integers
     private Long id;
     private String text;
     private Long senderId;
@@ -1,5 +1,6 @@
 package com.chat.chat.dto;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import lombok.*;
 
 @Getter
@@ -10,5 +11,6 @@ import lombok.*;
 public class ReadReceipt {
     private String conversationId;
     private String messageId;
+    @JsonAlias("userId") // the mobile client sends the reader as "userId"
     private String readerId;
 }
@@ -0,0 +1,16 @@
+package com.chat.chat.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TypingState {
+    private String conversationId;
+    private String node;          // publishing node: with the broker relay each node sends its own typers
+    private List<String> userIds; // everyone currently typing through that node, empty when nobody is
+}
@@ -0,0 +1,74 @@
+package com.chat.chat.id;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered 64-bit id generator (Snowflake layout):
+ *
+ * <pre>
+ *  0 | 41 bits: ms since 2024-01-01T00:00Z | 10 bits: node id | 12 bits: sequence
+ * </pre>
+ *
+ * The (timestamp, sequence) pair lives in a single {@link AtomicLong} and is advanced with a CAS,
+ * so generation is lock-free. Ids are strictly increasing per node: when the sequence of a
+ * millisecond is exhausted, or the wall clock goes backwards, the generator keeps counting on
+ * its own logical clock instead of blocking or producing duplicates.
+ */
+public final class Snowflake {
+
+    public static final long EPOCH_MS = 1704067200000L; // 2024-01-01T00:00:00Z
+
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final Map<Integer, Snowflake> NODES = new ConcurrentHashMap<>();
+
+    private final long nodeBits;
+    private final LongSupplier clock;
+    // (ms since epoch << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong state = new AtomicLong();
+
+    Snowflake(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    /** The generator of a node, shared by everything in this JVM that generates ids for it. */
+    public static Snowflake forNode(int nodeId) {
+        return NODES.computeIfAbsent(nodeId, id -> new Snowflake(id, System::currentTimeMillis));
+    }
+
+    public long nextId() {
+        while (true) {
+            long prev = state.get();
+            long now = clock.getAsLong() - EPOCH_MS;
+            // A new millisecond restarts the sequence; otherwise count on. An exhausted sequence
+            // carries into the timestamp bits, i.e. borrows the next millisecond.
+            long next = now > (prev >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : prev + 1;
+            if (state.compareAndSet(prev, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MS;
+    }
+
+    /** Lowest id any node can generate at {@code timestampMs}: a cursor for "messages since". */
+    public static long firstIdAt(long timestampMs) {
+        return Math.max(0, timestampMs - EPOCH_MS) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
@@ -0,0 +1,42 @@
+package com.chat.chat.id;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.AnnotationBasedGenerator;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.generator.GeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.util.EnumSet;
+
+/**
+ * Hibernate side of {@link SnowflakeId}. The node id is read from the
+ * {@value #NODE_ID_SETTING} Hibernate setting (see application.properties).
+ */
+public class SnowflakeIdentifierGenerator implements BeforeExecutionGenerator, AnnotationBasedGenerator<SnowflakeId> {
+
+    public static final String NODE_ID_SETTING = "app.snowflake.node-id";
+
+    private Snowflake snowflake;
+
+    // Hibernate may instantiate generators through the Spring bean container, so keep a
+    // no-arg constructor and receive the creation context in initialize().
+    @Override
+    public void initialize(SnowflakeId config, Member member, GeneratorCreationContext context) {
+        Object nodeId = context.getServiceRegistry().requireService(ConfigurationService.class)
+                .getSettings().get(NODE_ID_SETTING);
+        this.snowflake = Snowflake.forNode(nodeId == null ? 0 : Integer.parseInt(nodeId.toString().trim()));
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue, EventType eventType) {
+        return snowflake.nextId();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+}
@@ -32,7 +32,8 @@ public class Conversation {
     @ManyToMany
     @JoinTable(name = "conversation_participants",
         joinColumns = @JoinColumn(name = "conversation_id"),
-        inverseJoinColumns = @JoinColumn(name = "user_id"))
+        inverseJoinColumns = @JoinColumn(name = "user_id"),
+        indexes = @Index(name = "idx_conversation_participants_user", columnList = "user_id"))
     @Builder.Default
     private Set<User> participants = new HashSet<>();
 
@@ -0,0 +1,54 @@
+package com.chat.chat.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Denormalized inbox row of one user for one conversation, kept current on write
+ * (new messages, profile changes) so the inbox is served by a single range scan.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "inbox_entries",
+        uniqueConstraints = @UniqueConstraint(name = "uk_inbox_user_conversation", columnNames = {"user_id", "conversation_id"}),
+        indexes = {
+                @Index(name = "idx_inbox_user_activity", columnList = "user_id, last_activity_at, conversation_id"),
+                @Index(name = "idx_inbox_conversation", columnList = "conversation_id"),
+                @Index(name = "idx_inbox_counterpart", columnList = "counterpart_id")
+        })
+public class InboxEntry {
+    public static final int PREVIEW_LENGTH = 255;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    // Counterpart snapshot
+    @Column(name = "counterpart_id")
+    private Long counterpartId;
+    private String counterpartName;
+    private String counterpartAvatar;
+    private boolean counterpartOnline;
+
+    // Last message snapshot
+    private Long lastMessageId;
+    @Column(length = PREVIEW_LENGTH)
+    private String lastMessagePreview;
+    private Long lastMessageSenderId;
+    private Instant lastMessageAt;
+
+    @Column(name = "last_activity_at", nullable = false)
+    private Instant lastActivityAt;
+}
@@ -2,10 +2,17 @@ package com.chat.chat.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "uk_media_content_hash", columnList = "content_hash", unique = true),
+        @Index(name = "idx_media_url", columnList = "url")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -23,8 +30,19 @@ public class Media {
     private long size;
     private String url;
     private LocalDateTime uploadTime;
+
+    // SHA-256 (hex) of the bytes; null for files stored under a random name before content addressing
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Messages and avatars pointing at this file; the default fills the column for existing rows
+    @ColumnDefault("0")
+    private int refCount;
+
+    // Since when nothing references the file; the sweeper reclaims it after a grace period
+    private Instant unreferencedSince;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     private User user;
     
@@ -1,5 +1,6 @@
 package com.chat.chat.model;
 
+import com.chat.chat.id.SnowflakeId;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -11,19 +12,22 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        // Keyset pagination of a conversation's history: ids are time-ordered, so (conversation_id, id) is enough
+        @Index(name = "idx_messages_conversation_id", columnList = "conversation_id, id")
+})
 public class Message {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
 
     @Column(columnDefinition = "TEXT")
     private String text;
 
-    @ManyToOne(optional = false)
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
     private User sender;
 
-    @ManyToOne(optional = false)
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
     private Conversation conversation;
 
     private Instant timestamp;
@@ -34,7 +38,7 @@ public class Message {
     @Enumerated(EnumType.STRING)
     private Type type;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     private Media media;
 
     public enum Status { SENT, DELIVERED, READ }
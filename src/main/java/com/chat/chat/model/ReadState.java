@@ -0,0 +1,35 @@
+package com.chat.chat.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Read watermark of one participant in one conversation: every message up to and including
+ * {@code lastReadMessageId} has been read, and {@code unreadCount} is maintained on write so
+ * unread badges never need a COUNT over the message history.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "conversation_read_states",
+        uniqueConstraints = @UniqueConstraint(name = "uk_read_state_user_conversation", columnNames = {"user_id", "conversation_id"}),
+        indexes = @Index(name = "idx_read_state_conversation", columnList = "conversation_id"))
+public class ReadState {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Plain ids rather than associations: rows are only touched through bulk updates
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    private Long lastReadMessageId;
+
+    private int unreadCount;
+}
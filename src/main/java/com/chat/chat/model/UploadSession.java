@@ -0,0 +1,44 @@
+package com.chat.chat.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A resumable upload in progress: the bytes received so far are in {@code <upload dir>/.incoming/<id>.part}.
+ * The row is deleted when the upload completes, is cancelled or expires.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "upload_sessions", indexes = {
+        // Sweep of abandoned uploads
+        @Index(name = "idx_upload_sessions_expires_at", columnList = "expires_at")
+})
+public class UploadSession {
+    @Id
+    private String id;
+
+    // Plain id: authorizing a chunk needs no join
+    @Column(name = "user_id")
+    private Long userId;
+
+    private String originalName;
+    private String mimeType;
+    private String fileType;
+
+    /** Declared total size, in bytes. */
+    private long uploadLength;
+
+    /** Bytes durably written to the part file. */
+    private long uploadOffset;
+
+    private Instant createdAt;
+
+    @Column(name = "expires_at")
+    private Instant expiresAt;
+}
@@ -2,6 +2,7 @@ package com.chat.chat.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -40,6 +41,10 @@ public class User {
     @Column(name = "phone_number")
     private String phoneNumber;
 
+    // The inbox projection holds every conversation of the user (see InboxService)
+    @ColumnDefault("false")
+    private boolean inboxBuilt;
+
     @ManyToMany(mappedBy = "participants")
     @Builder.Default
     private Set<Conversation> conversations = new HashSet<>();
@@ -0,0 +1,8 @@
+package com.chat.chat.repository;
+
+/**
+ * Row of {@link ConversationRepository#findContactPairs}: {@code contactId} shares a
+ * conversation with {@code userId}. {@code contactEmail} is the contact's principal name,
+ * which user destinations are resolved by.
+ */
+public record ContactPair(Long userId, Long contactId, String contactEmail) {}
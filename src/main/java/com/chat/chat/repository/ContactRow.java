@@ -0,0 +1,4 @@
+package com.chat.chat.repository;
+
+/** Row of {@link UserRepository#findSearchRows}: the fields indexed by the contact search. */
+public record ContactRow(Long id, String name, String email) {}
@@ -5,6 +5,8 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface ConversationRepository extends JpaRepository<Conversation, Long> {
@@ -12,4 +14,34 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     @Query("select c from Conversation c join c.participants p1 join c.participants p2 " +
             "where c.groupChat = false and p1.id = :u1 and p2.id = :u2")
     Optional<Conversation> findDirectBetween(@Param("u1") Long user1Id, @Param("u2") Long user2Id);
+
+    /** Participant ids only, read from the join table without loading any User. */
+    @Query("select p.id from Conversation c join c.participants p where c.id = :conversationId order by p.id")
+    List<Long> findParticipantIds(@Param("conversationId") Long conversationId);
+
+    /** Ids of the conversations the user takes part in, from the join table. */
+    @Query("select c.id from Conversation c join c.participants p where p.id = :userId")
+    List<Long> findIdsByParticipant(@Param("userId") Long userId);
+
+    /** Every (user, contact) pair where the two share at least one conversation, for the given users. */
+    @Query("select distinct new com.chat.chat.repository.ContactPair(p1.id, p2.id, p2.email) " +
+            "from Conversation c join c.participants p1 join c.participants p2 " +
+            "where p1.id in :userIds and p2.id <> p1.id")
+    List<ContactPair> findContactPairs(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * One row per conversation of the user, driven by the conversation_participants(user_id) index.
+     * The counterpart is the lowest-id other participant and the last message is picked by a
+     * top-1 sub-select on the (conversation_id, id) index, so the whole inbox is a
+     * single query whatever the number of conversations on the platform.
+     */
+    @Query("select new com.chat.chat.repository.ConversationSummaryRow(" +
+            "c.id, c.lastMessageTime, u.id, u.name, u.avatar, u.online, " +
+            "lm.id, lm.text, lm.sender.id, lm.timestamp) " +
+            "from Conversation c join c.participants me join c.participants u " +
+            "left join Message lm on lm.id = (select m.id from Message m where m.conversation = c " +
+            "order by m.id desc limit 1) " +
+            "where me.id = :userId " +
+            "and u.id = (select min(p.id) from Conversation c2 join c2.participants p where c2 = c and p.id <> :userId)")
+    List<ConversationSummaryRow> findSummaryRowsForUser(@Param("userId") Long userId);
 }
@@ -0,0 +1,21 @@
+package com.chat.chat.repository;
+
+import java.time.Instant;
+
+/**
+ * Flat row returned by {@link ConversationRepository#findSummaryRowsForUser(Long)}:
+ * a conversation of the user, its counterpart and its last message (all message
+ * columns are null when the conversation is still empty).
+ */
+public record ConversationSummaryRow(
+        Long conversationId,
+        Instant lastMessageTime,
+        Long counterpartId,
+        String counterpartName,
+        String counterpartAvatar,
+        boolean counterpartOnline,
+        Long lastMessageId,
+        String lastMessageText,
+        Long lastMessageSenderId,
+        Instant lastMessageTimestamp
+) {}
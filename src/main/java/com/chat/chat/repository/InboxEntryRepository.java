@@ -0,0 +1,58 @@
+package com.chat.chat.repository;
+
+import com.chat.chat.model.InboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface InboxEntryRepository extends JpaRepository<InboxEntry, Long> {
+
+    @Query("select e.conversationId from InboxEntry e where e.userId = :userId")
+    List<Long> findConversationIdsByUserId(@Param("userId") Long userId);
+
+    boolean existsByUserIdAndConversationId(Long userId, Long conversationId);
+
+    // Keyset pages over the (user_id, last_activity_at, conversation_id) index, most recent first
+
+    @Query("select e from InboxEntry e where e.userId = :userId " +
+            "order by e.lastActivityAt desc, e.conversationId desc")
+    List<InboxEntry> findFirstPage(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("select e from InboxEntry e where e.userId = :userId and (e.lastActivityAt < :activityAt or " +
+            "(e.lastActivityAt = :activityAt and e.conversationId < :conversationId)) " +
+            "order by e.lastActivityAt desc, e.conversationId desc")
+    List<InboxEntry> findPageBefore(@Param("userId") Long userId,
+                                    @Param("activityAt") Instant activityAt,
+                                    @Param("conversationId") Long conversationId,
+                                    Pageable pageable);
+
+    /** Updates the rows of every participant at once; older messages never overwrite newer ones. */
+    @Modifying
+    @Query("update InboxEntry e set e.lastMessageId = :messageId, e.lastMessagePreview = :preview, " +
+            "e.lastMessageSenderId = :senderId, e.lastMessageAt = :sentAt, e.lastActivityAt = :sentAt " +
+            "where e.conversationId = :conversationId and (e.lastMessageId is null or e.lastMessageId < :messageId)")
+    int applyNewMessage(@Param("conversationId") Long conversationId,
+                        @Param("messageId") Long messageId,
+                        @Param("preview") String preview,
+                        @Param("senderId") Long senderId,
+                        @Param("sentAt") Instant sentAt);
+
+    @Modifying
+    @Query("update InboxEntry e set e.counterpartName = :name, e.counterpartAvatar = :avatar " +
+            "where e.counterpartId = :userId")
+    int updateCounterpart(@Param("userId") Long userId, @Param("name") String name, @Param("avatar") String avatar);
+
+    @Modifying
+    @Query("update InboxEntry e set e.counterpartOnline = :online where e.counterpartId in :userIds")
+    int updateCounterpartOnline(@Param("userIds") Collection<Long> userIds, @Param("online") boolean online);
+
+    @Modifying
+    @Query("update InboxEntry e set e.counterpartOnline = false where e.counterpartOnline = true")
+    int resetCounterpartOnline();
+}
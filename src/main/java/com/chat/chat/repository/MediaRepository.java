@@ -1,11 +1,49 @@
 package com.chat.chat.repository;
 
 import com.chat.chat.model.Media;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface MediaRepository extends JpaRepository<Media, Long> {
     Optional<Media> findByUrl(String url);
+
+    Optional<Media> findByContentHash(String contentHash);
+
+    @Modifying
+    @Query("update Media m set m.refCount = m.refCount + :count, m.unreferencedSince = null where m.id = :id")
+    int retain(@Param("id") Long id, @Param("count") int count);
+
+    @Modifying
+    @Query("update Media m set m.refCount = m.refCount + 1, m.unreferencedSince = null "
+            + "where m.url = :url and m.contentHash is not null")
+    int retainByUrl(@Param("url") String url);
+
+    /** Drops one reference; the last one starts the grace period. */
+    @Modifying
+    @Query("update Media m set m.refCount = m.refCount - 1, "
+            + "m.unreferencedSince = case when m.refCount = 1 then :now else m.unreferencedSince end "
+            + "where m.url = :url and m.contentHash is not null and m.refCount > 0")
+    int releaseByUrl(@Param("url") String url, @Param("now") Instant now);
+
+    /** Restarts the grace period of an unreferenced file that was just uploaded again. */
+    @Modifying
+    @Query("update Media m set m.unreferencedSince = :now where m.id = :id and m.refCount = 0")
+    int touch(@Param("id") Long id, @Param("now") Instant now);
+
+    @Query("select m from Media m where m.contentHash is not null and m.refCount = 0 and m.unreferencedSince < :cutoff order by m.id")
+    List<Media> findUnreferenced(@Param("cutoff") Instant cutoff, Pageable pageable);
+
+    /** Deletes the row only if it is still unreferenced, so a concurrent retain wins. */
+    @Modifying
+    @Query("delete from Media m where m.id = :id and m.refCount = 0 and m.unreferencedSince < :cutoff")
+    int deleteUnreferenced(@Param("id") Long id, @Param("cutoff") Instant cutoff);
 }
@@ -1,13 +1,46 @@
 package com.chat.chat.repository;
 
-import com.chat.chat.model.Conversation;
 import com.chat.chat.model.Message;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    List<Message> findByConversationIdOrderByTimestampAsc(Long conversationId);
-    Optional<Message> findTopByConversationOrderByTimestampDesc(Conversation conversation);
+    // Keyset pages over (conversation_id, id): message ids are time-ordered, so the cursor is the
+    // id alone. Every page is a single select that fetches sender, conversation and media in
+    // the same round-trip.
+
+    @EntityGraph(attributePaths = {"sender", "conversation", "media"})
+    @Query("select m from Message m where m.conversation.id = :conversationId order by m.id desc")
+    List<Message> findLatestPage(@Param("conversationId") Long conversationId, Pageable pageable);
+
+    @EntityGraph(attributePaths = {"sender", "conversation", "media"})
+    @Query("select m from Message m where m.conversation.id = :conversationId and m.id < :cursorId order by m.id desc")
+    List<Message> findPageBefore(@Param("conversationId") Long conversationId, @Param("cursorId") Long cursorId, Pageable pageable);
+
+    @EntityGraph(attributePaths = {"sender", "conversation", "media"})
+    @Query("select m from Message m where m.conversation.id = :conversationId and m.id > :cursorId order by m.id asc")
+    List<Message> findPageAfter(@Param("conversationId") Long conversationId, @Param("cursorId") Long cursorId, Pageable pageable);
+
+    /** Search hits, in any order. */
+    @EntityGraph(attributePaths = {"sender", "conversation", "media"})
+    @Query("select m from Message m where m.id in :ids")
+    List<Message> findAllWithDetailsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /** Texts to (re)index, in id order: a keyset scan over the primary key. */
+    @Query("select new com.chat.chat.repository.MessageTextRow(m.id, m.conversation.id, m.text) " +
+            "from Message m where m.id > :afterId and m.text is not null order by m.id")
+    List<MessageTextRow> findTextRowsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Only used to backfill a missing read state, never on the hot path
+    @Query("select count(m) from Message m where m.conversation.id = :conversationId and m.sender.id <> :userId")
+    long countFromOthers(@Param("conversationId") Long conversationId, @Param("userId") Long userId);
+
+    @Query("select count(m) from Message m where m.conversation.id = :conversationId and m.id > :afterId and m.sender.id <> :userId")
+    long countFromOthersAfter(@Param("conversationId") Long conversationId, @Param("userId") Long userId, @Param("afterId") Long afterId);
 }
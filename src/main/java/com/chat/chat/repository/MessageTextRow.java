@@ -0,0 +1,4 @@
+package com.chat.chat.repository;
+
+/** Row of {@link MessageRepository#findTextRowsAfter}: the fields indexed by the message search. */
+public record MessageTextRow(Long id, Long conversationId, String text) {}
@@ -0,0 +1,48 @@
+package com.chat.chat.repository;
+
+import com.chat.chat.model.ReadState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ReadStateRepository extends JpaRepository<ReadState, Long> {
+
+    List<ReadState> findByUserIdAndConversationIdIn(Long userId, Collection<Long> conversationIds);
+
+    List<ReadState> findByConversationId(Long conversationId);
+
+    /**
+     * Applies {@code count} new messages from one sender to every participant of the conversation
+     * in one statement: the sender's watermark moves to the last of them, everybody else's
+     * counter goes up.
+     */
+    @Modifying
+    @Query("update ReadState r set " +
+            "r.unreadCount = case when r.userId = :senderId then 0 else r.unreadCount + :count end, " +
+            "r.lastReadMessageId = case when r.userId = :senderId then :messageId else r.lastReadMessageId end " +
+            "where r.conversationId = :conversationId")
+    int applyNewMessages(@Param("conversationId") Long conversationId,
+                         @Param("senderId") Long senderId,
+                         @Param("messageId") Long lastMessageId,
+                         @Param("count") int count);
+
+    /**
+     * Moves the watermark forward (never backward); the counter becomes the number of messages
+     * from others above it, found with the (conversation_id, id) index.
+     */
+    @Modifying
+    @Query("update ReadState r set r.lastReadMessageId = :messageId, " +
+            "r.unreadCount = cast((select count(m) from Message m where m.conversation.id = :conversationId " +
+            "and m.id > :messageId and m.sender.id <> :userId) as integer) " +
+            "where r.userId = :userId and r.conversationId = :conversationId " +
+            "and (r.lastReadMessageId is null or r.lastReadMessageId < :messageId)")
+    int advanceWatermark(@Param("userId") Long userId,
+                         @Param("conversationId") Long conversationId,
+                         @Param("messageId") Long messageId);
+
+    boolean existsByUserIdAndConversationId(Long userId, Long conversationId);
+}
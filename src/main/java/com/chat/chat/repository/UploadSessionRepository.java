@@ -0,0 +1,23 @@
+package com.chat.chat.repository;
+
+import com.chat.chat.model.UploadSession;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /** Records a chunk; the offset only moves forward. */
+    @Modifying
+    @Query("update UploadSession s set s.uploadOffset = :offset, s.expiresAt = :expiresAt " +
+            "where s.id = :id and s.uploadOffset < :offset")
+    int updateOffset(@Param("id") String id, @Param("offset") long offset, @Param("expiresAt") Instant expiresAt);
+
+    @Query("select s.id from UploadSession s where s.expiresAt < :now")
+    List<String> findExpiredIds(@Param("now") Instant now, Pageable pageable);
+}
@@ -1,10 +1,61 @@
 package com.chat.chat.repository;
 
+import com.chat.chat.dto.UserProfile;
 import com.chat.chat.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
+
+    @Query("select u.id from User u where u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    @Query("select u.statusMessage from User u where u.id = :id")
+    Optional<String> findStatusMessageById(@Param("id") Long id);
+
+    @Query("select u.inboxBuilt from User u where u.id = :id")
+    Optional<Boolean> findInboxBuiltById(@Param("id") Long id);
+
+    @Modifying
+    @Query("update User u set u.inboxBuilt = true where u.id = :id")
+    int markInboxBuilt(@Param("id") Long id);
+
+    /** One statement for a whole batch of presence changes. */
+    @Modifying
+    @Query("update User u set u.online = :online where u.id in :ids")
+    int updateOnline(@Param("ids") Collection<Long> ids, @Param("online") boolean online);
+
+    @Modifying
+    @Query("update User u set u.online = false where u.online = true")
+    int resetOnline();
+
+    /** Contacts directory page in id order, without the caller (keyset: ids after {@code afterId}). */
+    @Query("select new com.chat.chat.dto.UserProfile(u.id, u.name, u.email, u.avatar, u.statusMessage, u.online) " +
+            "from User u where u.id > :afterId and u.id <> :excludeId order by u.id")
+    List<UserProfile> findProfilesAfter(@Param("afterId") Long afterId, @Param("excludeId") Long excludeId, Pageable pageable);
+
+    @Query("select new com.chat.chat.dto.UserProfile(u.id, u.name, u.email, u.avatar, u.statusMessage, u.online) " +
+            "from User u where u.id in :ids")
+    List<UserProfile> findProfiles(@Param("ids") Collection<Long> ids);
+
+    /** Batches of the search index build, in id order. */
+    @Query("select new com.chat.chat.repository.ContactRow(u.id, u.name, u.email) from User u where u.id > :afterId order by u.id")
+    List<ContactRow> findSearchRows(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Users with a name word or an email starting with {@code word} (lower case, letters and
+     * digits only), for the contact search without its index.
+     */
+    @Query("select new com.chat.chat.repository.ContactRow(u.id, u.name, u.email) from User u " +
+            "where lower(u.name) like concat(:word, '%') or lower(u.name) like concat('% ', :word, '%') " +
+            "or lower(u.email) like concat(:word, '%') order by u.id")
+    List<ContactRow> findSearchRowsByPrefix(@Param("word") String word, Pageable pageable);
 }
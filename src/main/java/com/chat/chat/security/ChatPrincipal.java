@@ -0,0 +1,50 @@
+package com.chat.chat.security;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Authenticated user as carried by the access token: id, email and roles come from the
+ * claims, so resolving the caller costs no database lookup. {@link #getName()} is the email,
+ * like the UserDetails principal it replaces.
+ */
+public record ChatPrincipal(Long id, String email, List<GrantedAuthority> authorities) implements Principal {
+
+    public static final String UID_CLAIM = "uid";
+    public static final String ROLES_CLAIM = "roles";
+
+    /** The principal described by the claims, or null for tokens issued without a user id. */
+    public static ChatPrincipal fromClaims(Claims claims) {
+        Object uid = claims.get(UID_CLAIM);
+        if (!(uid instanceof Number number) || claims.getSubject() == null) return null;
+        Object roles = claims.get(ROLES_CLAIM);
+        return new ChatPrincipal(number.longValue(), claims.getSubject(), authorities(roles == null ? "" : roles.toString()));
+    }
+
+    /** Same mapping as {@link AppUserDetailsService}: "USER,ADMIN" -> ROLE_USER, ROLE_ADMIN. */
+    public static List<GrantedAuthority> authorities(String roles) {
+        return Arrays.stream(roles.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(r -> (GrantedAuthority) new SimpleGrantedAuthority("ROLE_" + r))
+                .toList();
+    }
+
+    /** The ChatPrincipal behind an HTTP or STOMP principal, null when there is none. */
+    public static ChatPrincipal of(Principal principal) {
+        if (principal instanceof ChatPrincipal chat) return chat;
+        if (principal instanceof Authentication auth && auth.getPrincipal() instanceof ChatPrincipal chat) return chat;
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return email;
+    }
+}
@@ -0,0 +1,82 @@
+package com.chat.chat.security;
+
+import com.google.api.client.auth.openidconnect.HttpTransportFactory;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Verifies Google ID tokens locally: RS256 signature against Google's published JWK set,
+ * issuer, audience (the configured OAuth client ids) and expiry. The key set is fetched once
+ * and cached by the client library, which downloads it again when the cache expires, so a
+ * login costs one signature check instead of a round-trip to the tokeninfo endpoint.
+ *
+ * Without configured client ids every token is refused: a token minted for any other OAuth
+ * client would otherwise log its user in here.
+ */
+@Slf4j
+@Component
+public class GoogleTokenVerifier {
+
+    /** Identity asserted by a valid token. */
+    public record GoogleIdentity(String email, String name, String picture) {}
+
+    private static final List<String> ISSUERS = List.of("accounts.google.com", "https://accounts.google.com");
+
+    private final IdTokenVerifier verifier;
+    private final boolean configured;
+
+    @Autowired
+    public GoogleTokenVerifier(@Value("${app.auth.google.client-ids:}") String clientIds,
+                               @Value("${app.auth.google.certs-url:https://www.googleapis.com/oauth2/v3/certs}") String certsUrl) {
+        this(clientIds, certsUrl, NetHttpTransport::new);
+    }
+
+    GoogleTokenVerifier(String clientIds, String certsUrl, HttpTransportFactory transportFactory) {
+        List<String> audience = Arrays.stream(clientIds.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+        this.configured = !audience.isEmpty();
+        if (!configured) {
+            log.warn("app.auth.google.client-ids is not set: Google sign-in is disabled");
+        }
+        this.verifier = new IdTokenVerifier.Builder()
+                .setCertificatesLocation(certsUrl)
+                .setIssuers(ISSUERS)
+                .setAudience(audience)
+                .setHttpTransportFactory(transportFactory)
+                .build();
+    }
+
+    /** False when no client id is configured: then no token is accepted. */
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    /** The identity behind a valid token with a verified email, empty otherwise. */
+    public Optional<GoogleIdentity> verify(String idToken) {
+        if (!configured || idToken == null || idToken.isBlank()) return Optional.empty();
+        try {
+            GoogleIdToken token = GoogleIdToken.parse(GsonFactory.getDefaultInstance(), idToken);
+            if (!verifier.verifyOrThrow(token)) return Optional.empty();
+            GoogleIdToken.Payload payload = token.getPayload();
+            if (payload.getEmail() == null || !Boolean.TRUE.equals(payload.getEmailVerified())) return Optional.empty();
+            return Optional.of(new GoogleIdentity(payload.getEmail(),
+                    (String) payload.getOrDefault("name", "Google User"),
+                    (String) payload.get("picture")));
+        } catch (Exception e) {
+            log.debug("Google ID token rejected: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+}
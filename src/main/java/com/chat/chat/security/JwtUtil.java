@@ -1,16 +1,36 @@
 package com.chat.chat.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Issues and verifies the HS256 access tokens.
+ *
+ * The key and the parser are built once. Verified tokens are cached by their SHA-256 digest
+ * until their {@code exp}, so a client sending the same token again skips the HMAC check and
+ * the claims parsing; a token that fails verification is never cached. Metrics under
+ * "jwt.verified".
+ */
 @Component
 public class JwtUtil {
 
@@ -18,9 +38,43 @@ public class JwtUtil {
     private static final String SECRET_BASE64 = "c2VjcmV0LXNlY3JldC1zZWNyZXQtc2VjcmV0LXNlY3JldC1zZWNyZXQ=";
     private static final long EXPIRATION_MS = 1000L * 60 * 60 * 12; // 12h
 
-    private Key getSigningKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET_BASE64);
-        return Keys.hmacShaKeyFor(keyBytes);
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Key signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET_BASE64));
+    private final JwtParser parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+    private final Cache<ByteBuffer, Claims> verified;
+
+    public JwtUtil(MeterRegistry meterRegistry,
+                   @Value("${app.jwt.verified-cache.max-size:100000}") long maxSize) {
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<ByteBuffer, Claims>() {
+                    @Override
+                    public long expireAfterCreate(ByteBuffer digest, Claims claims, long currentTime) {
+                        Date exp = claims.getExpiration();
+                        if (exp == null) return TimeUnit.MILLISECONDS.toNanos(EXPIRATION_MS);
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, exp.getTime() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(ByteBuffer digest, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(ByteBuffer digest, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "jwt.verified");
     }
 
     public String generateToken(String subject, Map<String, Object> claims) {
@@ -31,15 +85,29 @@ public class JwtUtil {
                 .setSubject(subject)
                 .setIssuedAt(now)
                 .setExpiration(exp)
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
+    /**
+     * Claims of a valid token; throws a {@link io.jsonwebtoken.JwtException} otherwise.
+     * The returned claims may be shared between callers: do not modify them.
+     */
     public Claims parse(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        ByteBuffer digest = digest(token);
+        Claims claims = verified.getIfPresent(digest);
+        if (claims != null) return claims;
+        claims = verify(token);
+        verified.put(digest, claims);
+        return claims;
+    }
+
+    /** Full signature and expiry check, without the cache. */
+    Claims verify(String token) {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA_256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
     }
 }
@@ -0,0 +1,103 @@
+package com.chat.chat.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Dedicated pool for BCrypt work (login checks, signup hashes, rehashes), so that a login
+ * storm cannot take the request threads used by message traffic.
+ *
+ * The queue is bounded: when it is full the call is rejected at once with
+ * {@link SaturatedException} (answered as 503 with Retry-After) instead of waiting. Metrics:
+ * auth.hashing.wait (time queued) and auth.hashing.time (time running), tagged by operation,
+ * auth.hashing.rejected, auth.hashing.active and auth.hashing.queued.
+ */
+@Component
+public class PasswordHashingExecutor implements DisposableBean {
+
+    /** Thrown when the pool and its queue are full. */
+    @Getter
+    public static class SaturatedException extends RuntimeException {
+        private final int retryAfterSeconds;
+
+        public SaturatedException(int retryAfterSeconds) {
+            super("Password hashing pool saturated");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+    private final int retryAfterSeconds;
+
+    public PasswordHashingExecutor(MeterRegistry meterRegistry,
+                                   @Value("${app.auth.hashing.threads:0}") int threads,
+                                   @Value("${app.auth.hashing.queue-capacity:200}") int queueCapacity,
+                                   @Value("${app.auth.hashing.retry-after-seconds:2}") int retryAfterSeconds) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "password-hashing-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.meterRegistry = meterRegistry;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.rejected = Counter.builder("auth.hashing.rejected")
+                .description("Password hashing requests refused because the pool was saturated")
+                .register(meterRegistry);
+        Gauge.builder("auth.hashing.active", pool, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        Gauge.builder("auth.hashing.queued", pool, p -> p.getQueue().size()).register(meterRegistry);
+    }
+
+    /** Runs {@code work} on the pool; throws {@link SaturatedException} when it is full. */
+    public <T> CompletableFuture<T> submit(String operation, Supplier<T> work) {
+        Timer wait = Timer.builder("auth.hashing.wait").tag("operation", operation).register(meterRegistry);
+        Timer time = Timer.builder("auth.hashing.time").tag("operation", operation).register(meterRegistry);
+        long queuedAt = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                long startedAt = System.nanoTime();
+                wait.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+                T value;
+                try {
+                    value = work.get();
+                } catch (Throwable e) {
+                    time.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                    result.completeExceptionally(e);
+                    return;
+                }
+                time.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                result.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new SaturatedException(retryAfterSeconds);
+        }
+        return result;
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+}
@@ -1,5 +1,6 @@
 package com.chat.chat.security;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -36,18 +37,27 @@ public class SecurityConfig {
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
                 .requestMatchers("/auth/**", "/ws/**", "/h2-console/**").permitAll()
+                // Resumable uploads are owned by their creator
+                .requestMatchers("/api/media/uploads/**").authenticated()
                 .requestMatchers("/api/me", "/api/contacts", "/api/conversations/summary", "/api/media/**").permitAll() // Temporaire pour test
                 .requestMatchers(HttpMethod.GET, "/api/conversations/**").authenticated()
                 .requestMatchers("/api/**").authenticated()
+                // Metrics expose cache keys and load figures: admins only, health stays public for probes
+                .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                .requestMatchers("/actuator/**").hasRole("ADMIN")
                 .anyRequest().permitAll()
             )
             .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
         return http.build();
     }
 
+    /**
+     * Raising the strength takes effect progressively: each stored hash below it is rehashed
+     * on the user's next successful login (see {@link AppUserDetailsService#updatePassword}).
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${app.auth.bcrypt.strength:10}") int strength) {
+        return new BCryptPasswordEncoder(strength);
     }
 
     @Bean
@@ -32,11 +32,15 @@ public class WebSocketAuthInterceptor implements ChannelInterceptor {
                 String token = authHeader.substring(7);
                 try {
                     Claims claims = jwtUtil.parse(token);
-                    String username = claims.getSubject();
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                    UsernamePasswordAuthenticationToken user = new UsernamePasswordAuthenticationToken(
-                            userDetails, null, userDetails.getAuthorities());
-                    accessor.setUser(user);
+                    ChatPrincipal principal = ChatPrincipal.fromClaims(claims);
+                    if (principal != null) {
+                        accessor.setUser(new UsernamePasswordAuthenticationToken(principal, null, principal.authorities()));
+                    } else {
+                        // Token issued without a user id
+                        UserDetails userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+                        accessor.setUser(new UsernamePasswordAuthenticationToken(
+                                userDetails, null, userDetails.getAuthorities()));
+                    }
                 } catch (Exception ignored) {}
             }
         }
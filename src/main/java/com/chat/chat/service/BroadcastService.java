@@ -0,0 +1,48 @@
+package com.chat.chat.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+
+/**
+ * Sends one payload to many STOMP destinations. The payload is converted (Jackson) once into
+ * an immutable {@code byte[]} message; each destination only gets its own header copy,
+ * whatever the number of destinations.
+ */
+@Service
+@RequiredArgsConstructor
+public class BroadcastService {
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public void broadcast(Object payload, Collection<String> destinations) {
+        if (destinations.isEmpty()) return;
+        Message<?> prototype = encode(payload);
+        for (String destination : destinations) {
+            // The template copies the headers to set the destination and keeps the payload as is
+            messagingTemplate.send(destination, prototype);
+        }
+    }
+
+    /** Converts the payload once, the way {@code convertAndSend} would for each destination. */
+    Message<?> encode(Object payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setLeaveMutable(true);
+        MessageHeaders headers = accessor.getMessageHeaders();
+        Message<?> converted = messagingTemplate.getMessageConverter().toMessage(payload, headers);
+        if (converted == null) {
+            throw new MessageConversionException("Unable to convert payload of type " + payload.getClass().getName());
+        }
+        // Detached, immutable headers: every send works on its own copy instead of mutating this one
+        MessageHeaders frozen = SimpMessageHeaderAccessor.wrap(converted).toMessageHeaders();
+        return MessageBuilder.createMessage(converted.getPayload(), frozen);
+    }
+}
@@ -0,0 +1,371 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.model.User;
+import com.chat.chat.repository.ContactRow;
+import com.chat.chat.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-process typeahead index over user names and emails.
+ *
+ * Terms are the lower-cased, accent-free words of the name and of the email's local part
+ * (domains are not indexed: "gmail" would match half the users). Each term maps to the sorted
+ * ids of its users in a skip list, so a prefix query is a range scan. A query matches a user
+ * when each of its words is a prefix of one of the user's terms; results are ranked (exact
+ * word, then name prefix, then email prefix, then shorter names) and capped.
+ *
+ * The index is loaded from the database once the application is ready and kept up to date
+ * by {@link #upsert} on signup and profile changes. Posting arrays are copied on write:
+ * searches never lock, updates are serialized.
+ *
+ * With the broker relay ({@link ClusterMode}) users created or renamed through other nodes
+ * would never reach this index, so it is not built: candidates come from a prefix query on
+ * the users table instead (same matching and ranking, without accent folding on the
+ * database side).
+ */
+@Slf4j
+@Service
+public class ContactSearchIndex {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 50;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final long[] EMPTY = new long[0];
+    private static final int LOAD_BATCH = 10_000;
+
+    private final UserRepository userRepository;
+    private final boolean enabled;
+    private final int maxCandidates;
+    private final ConcurrentSkipListMap<String, long[]> postings = new ConcurrentSkipListMap<>();
+    private final Map<Long, String> documents = new ConcurrentHashMap<>(); // id -> normalized name + '\n' + email
+    private volatile boolean ready;
+
+    public ContactSearchIndex(UserRepository userRepository,
+                              MeterRegistry meterRegistry,
+                              ClusterMode clusterMode,
+                              @Value("${app.contacts.search.max-candidates:1000}") int maxCandidates) {
+        this.userRepository = userRepository;
+        this.enabled = clusterMode.nodeLocalCaches();
+        this.maxCandidates = maxCandidates;
+        Gauge.builder("contacts.search.users", documents, Map::size).register(meterRegistry);
+        Gauge.builder("contacts.search.terms", postings, Map::size).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) return;
+        long start = System.currentTimeMillis();
+        Loader loader = new Loader();
+        long afterId = 0;
+        List<ContactRow> batch;
+        do {
+            batch = userRepository.findSearchRows(afterId, PageRequest.of(0, LOAD_BATCH));
+            for (ContactRow row : batch) {
+                loader.add(row.id(), row.name(), row.email());
+                afterId = row.id();
+            }
+        } while (batch.size() == LOAD_BATCH);
+        install(loader);
+        log.info("Contact search index: {} users, {} terms in {} ms",
+                documents.size(), postings.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Merges a bulk load into the index. Users upserted while it was loading keep their newer
+     * document; the stale terms loaded for them only add candidates that scoring rejects.
+     */
+    synchronized void install(Loader loader) {
+        loader.terms.forEach((term, ids) -> postings.merge(term, ids.sortedDistinct(), ContactSearchIndex::union));
+        loader.documents.forEach(documents::putIfAbsent);
+        ready = true;
+    }
+
+    /** Indexes a new user or the new name of an existing one. */
+    public synchronized void upsert(User user) {
+        if (!enabled || user == null || user.getId() == null) return;
+        long id = user.getId();
+        String previous = documents.get(id);
+        String current = document(user.getName(), user.getEmail());
+        Set<String> oldTerms = previous == null ? Set.of() : terms(previous);
+        Set<String> newTerms = terms(current);
+        for (String term : oldTerms) {
+            if (!newTerms.contains(term)) remove(term, id);
+        }
+        for (String term : newTerms) {
+            if (!oldTerms.contains(term)) insert(term, id);
+        }
+        documents.put(id, current);
+    }
+
+    /**
+     * Ids of the best matches for {@code query}, best first, without {@code excludeId}.
+     * Empty while the index is loading.
+     */
+    public List<Long> search(String query, Long excludeId, int limit) {
+        if ((enabled && !ready) || query == null) return List.of();
+        String normalizedQuery = normalize(query).trim();
+        String emailQuery = normalizedQuery.indexOf('@') >= 0 ? normalizedQuery : null;
+        String[] words = words(normalizedQuery);
+        // Domains are not indexed: an email query is driven by its local part
+        String[] indexed = emailQuery != null ? words(localPart(normalizedQuery)) : words;
+        if (indexed.length == 0) return List.of();
+        int cap = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        // Candidates from the most selective word (the longest one), then filtered on all words
+        String driver = Arrays.stream(indexed).max(Comparator.comparingInt(String::length)).orElseThrow();
+        if (!enabled) return searchDatabase(driver, words, emailQuery, excludeId, cap);
+        long[] candidates = new long[Math.min(maxCandidates, 1024)];
+        int count = 0;
+        NavigableMap<String, long[]> range = postings.subMap(driver, true, driver + Character.MAX_VALUE, false);
+        scan:
+        for (long[] ids : range.values()) {
+            for (long id : ids) {
+                if (count >= maxCandidates) break scan;
+                if (count == candidates.length) candidates = Arrays.copyOf(candidates, Math.min(maxCandidates, count * 2));
+                candidates[count++] = id;
+            }
+        }
+        // A user matching through several terms is listed once
+        Arrays.sort(candidates, 0, count);
+
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = candidates[i];
+            if ((i > 0 && candidates[i - 1] == id) || (excludeId != null && excludeId == id)) continue;
+            String doc = documents.get(id);
+            if (doc == null) continue;
+            int score = score(words, emailQuery, doc);
+            if (score > 0) matches.add(new Match(id, score, doc));
+        }
+        return ranked(matches, cap);
+    }
+
+    private List<Long> searchDatabase(String driver, String[] words, String emailQuery, Long excludeId, int cap) {
+        List<Match> matches = new ArrayList<>();
+        for (ContactRow row : userRepository.findSearchRowsByPrefix(driver, PageRequest.of(0, maxCandidates))) {
+            if (excludeId != null && excludeId.equals(row.id())) continue;
+            String doc = document(row.name(), row.email());
+            int score = score(words, emailQuery, doc);
+            if (score > 0) matches.add(new Match(row.id(), score, doc));
+        }
+        return ranked(matches, cap);
+    }
+
+    private static List<Long> ranked(List<Match> matches, int cap) {
+        // Best score, then shorter name, then alphabetical
+        matches.sort(Comparator.comparingInt(Match::score).reversed()
+                .thenComparingInt(m -> m.doc().indexOf('\n'))
+                .thenComparing(Match::doc)
+                .thenComparingLong(Match::id));
+        return matches.stream().limit(cap).map(Match::id).toList();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /** Approximate heap held by the index, in bytes (for monitoring and benchmarks). */
+    public long footprintBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, long[]> e : postings.entrySet()) {
+            bytes += 48 /* skip list node + index share */ + 40 + e.getKey().length() + 16 + 8L * e.getValue().length;
+        }
+        for (String doc : documents.values()) {
+            bytes += 48 /* hash node + boxed key */ + 40 + doc.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * 0 = no match; otherwise higher is better. Works on the normalized document in place:
+     * this runs for every candidate of every keystroke.
+     */
+    private static int score(String[] words, String emailQuery, String doc) {
+        int nameEnd = doc.indexOf('\n');
+        if (emailQuery != null) {
+            return doc.startsWith(emailQuery, nameEnd + 1) ? 10 : 0;
+        }
+        int at = doc.indexOf('@', nameEnd + 1);
+        int localEnd = at < 0 ? doc.length() : at;
+        int score = 0;
+        for (String word : words) {
+            int best = Math.max(bestMatch(doc, 0, nameEnd, word, 6, 5, 4), bestMatch(doc, nameEnd + 1, localEnd, word, 3, 2, 2));
+            if (best == 0) return 0;
+            score += best;
+        }
+        if (words.length == 1 ? doc.startsWith(words[0]) : doc.startsWith(String.join(" ", words))) score += 2;
+        return score;
+    }
+
+    /** Best score of {@code word} against the terms of doc[from, to). */
+    private static int bestMatch(String doc, int from, int to, String word, int exact, int firstPrefix, int prefix) {
+        int best = 0;
+        boolean first = true;
+        int i = from;
+        while (i < to) {
+            while (i < to && !Character.isLetterOrDigit(doc.charAt(i))) i++;
+            if (i >= to) break;
+            int end = i;
+            while (end < to && Character.isLetterOrDigit(doc.charAt(end))) end++;
+            if (end - i >= word.length() && doc.startsWith(word, i)) {
+                best = Math.max(best, end - i == word.length() ? exact : first ? firstPrefix : prefix);
+            }
+            first = false;
+            i = end;
+        }
+        return best;
+    }
+
+    private void insert(String term, long id) {
+        postings.compute(term, (t, ids) -> {
+            if (ids == null) return new long[]{id};
+            int at = Arrays.binarySearch(ids, id);
+            if (at >= 0) return ids;
+            int pos = -at - 1;
+            long[] grown = new long[ids.length + 1];
+            System.arraycopy(ids, 0, grown, 0, pos);
+            grown[pos] = id;
+            System.arraycopy(ids, pos, grown, pos + 1, ids.length - pos);
+            return grown;
+        });
+    }
+
+    private void remove(String term, long id) {
+        postings.computeIfPresent(term, (t, ids) -> {
+            int at = Arrays.binarySearch(ids, id);
+            if (at < 0) return ids;
+            if (ids.length == 1) return null;
+            long[] shrunk = new long[ids.length - 1];
+            System.arraycopy(ids, 0, shrunk, 0, at);
+            System.arraycopy(ids, at + 1, shrunk, at, ids.length - at - 1);
+            return shrunk;
+        });
+    }
+
+    /** Terms of a normalized document. */
+    private static Set<String> terms(String document) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.addAll(Arrays.asList(words(nameOf(document))));
+        terms.addAll(Arrays.asList(words(localPart(emailOf(document)))));
+        return terms;
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        if (isAscii(text)) return text.toLowerCase(Locale.ROOT);
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+
+    /** Runs of letters and digits. */
+    private static String[] words(String normalized) {
+        List<String> words = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) start = i;
+            else if (!wordChar && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static String localPart(String email) {
+        int at = email.indexOf('@');
+        return at < 0 ? email : email.substring(0, at);
+    }
+
+    private static String document(String name, String email) {
+        return normalize(name) + '\n' + normalize(email);
+    }
+
+    private static String nameOf(String document) {
+        return document.substring(0, document.indexOf('\n'));
+    }
+
+    private static String emailOf(String document) {
+        return document.substring(document.indexOf('\n') + 1);
+    }
+
+    private record Match(long id, int score, String doc) {
+    }
+
+    /** Bulk load: terms are accumulated in growable lists and sorted once. */
+    static final class Loader {
+        final Map<String, LongList> terms = new HashMap<>();
+        final Map<Long, String> documents = new HashMap<>();
+
+        void add(long id, String name, String email) {
+            String document = document(name, email);
+            documents.put(id, document);
+            for (String term : terms(document)) {
+                terms.computeIfAbsent(term, t -> new LongList()).add(id);
+            }
+        }
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            long next = j >= b.length || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+            if (n == 0 || merged[n - 1] != next) merged[n++] = next;
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    /** Growable primitive list used while bulk loading. */
+    static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long[] sortedDistinct() {
+            if (size == 0) return EMPTY;
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int n = 1;
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+            }
+            return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.chat.chat.repository.ConversationRepository;
 import com.chat.chat.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Set;
@@ -16,6 +17,9 @@ public class ConversationService {
 
     private final ConversationRepository conversationRepository;
     private final UserRepository userRepository;
+    private final ReadStateService readStateService;
+    private final InboxService inboxService;
+    private final ParticipantIndex participantIndex;
 
     public Conversation get(Long id) {
         return conversationRepository.findById(id)
@@ -26,14 +30,21 @@ public class ConversationService {
         return conversationRepository.findAll();
     }
 
+    @Transactional
     public Conversation create(String name, List<Long> participantIds) {
         Conversation c = Conversation.builder().name(name).build();
         if (participantIds != null) {
             c.setParticipants(new java.util.HashSet<>(userRepository.findAllById(participantIds)));
         }
-        return conversationRepository.save(c);
+        c = conversationRepository.save(c);
+        List<Long> memberIds = c.getParticipants().stream().map(User::getId).toList();
+        readStateService.register(c.getId(), memberIds);
+        participantIndex.set(c.getId(), memberIds);
+        inboxService.register(c);
+        return c;
     }
 
+    @Transactional
     public Conversation findOrCreateDirect(Long userAId, Long userBId) {
         // Try both orders
         return conversationRepository.findDirectBetween(userAId, userBId)
@@ -48,7 +59,11 @@ public class ConversationService {
                             .groupChat(false)
                             .participants(Set.copyOf(List.of(a, b)))
                             .build();
-                    return conversationRepository.save(conv);
+                    conv = conversationRepository.save(conv);
+                    readStateService.register(conv.getId(), List.of(a.getId(), b.getId()));
+                    participantIndex.set(conv.getId(), List.of(a.getId(), b.getId()));
+                    inboxService.register(conv);
+                    return conv;
                 });
     }
 }
@@ -3,129 +3,69 @@ package com.chat.chat.service;
 import com.chat.chat.dto.ConversationSummaryDto;
 import com.chat.chat.dto.MessageSummaryDto;
 import com.chat.chat.dto.UserSummaryDto;
-import com.chat.chat.model.Conversation;
-import com.chat.chat.model.Message;
-import com.chat.chat.model.User;
-import com.chat.chat.repository.ConversationRepository;
-import com.chat.chat.repository.MessageRepository;
+import com.chat.chat.model.InboxEntry;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ConversationSummaryService {
-    
-    private final ConversationRepository conversationRepository;
-    private final MessageRepository messageRepository;
 
-    public List<ConversationSummaryDto> getConversationSummariesForUser(Long currentUserId) {
+    private final InboxService inboxService;
+    private final ReadStateService readStateService;
+
+    /**
+     * One page of the user's inbox, served from the {@link InboxEntry} projection
+     * (one range scan) plus one lookup of the unread counters of that page.
+     */
+    public List<ConversationSummaryDto> getConversationSummariesForUser(Long currentUserId, Instant before, Long beforeId, int limit) {
         try {
-            System.out.println("[ConversationSummaryService] Getting conversations for user ID: " + currentUserId);
-            
-            // Récupérer toutes les conversations où l'utilisateur participe
-            List<Conversation> allConversations = conversationRepository.findAll();
-            System.out.println("[ConversationSummaryService] Total conversations in DB: " + allConversations.size());
-            
-            List<Conversation> userConversations = allConversations.stream()
-                    .filter(conv -> {
-                        boolean hasUser = conv.getParticipants().stream()
-                                .anyMatch(user -> user.getId().equals(currentUserId));
-                        if (hasUser) {
-                            System.out.println("[ConversationSummaryService] Found conversation ID: " + conv.getId());
-                        }
-                        return hasUser;
-                    })
-                    .collect(Collectors.toList());
-            
-            System.out.println("[ConversationSummaryService] User conversations: " + userConversations.size());
+            List<InboxEntry> entries = inboxService.page(currentUserId, before, beforeId, limit);
+            log.debug("Found {} conversations for user {}", entries.size(), currentUserId);
+
+            Map<Long, Integer> unread = readStateService.unreadCounts(currentUserId,
+                    entries.stream().map(InboxEntry::getConversationId).toList());
 
-            return userConversations.stream()
-                    .map(conv -> buildConversationSummary(conv, currentUserId))
-                    .filter(summary -> summary != null) // Filtrer les conversations sans contrepartie
-                    .sorted((a, b) -> {
-                        String aTime = a.getLastActivityAt();
-                        String bTime = b.getLastActivityAt();
-                        if (aTime == null && bTime == null) return 0;
-                        if (aTime == null) return 1;
-                        if (bTime == null) return -1;
-                        return bTime.compareTo(aTime);
-                    }) // Plus récent en premier
-                    .collect(Collectors.toList());
+            // Déjà triées par activité, plus récent en premier
+            return entries.stream()
+                    .map(entry -> toSummary(entry, unread.getOrDefault(entry.getConversationId(), 0)))
+                    .toList();
         } catch (Exception e) {
-            System.err.println("[ConversationSummaryService] Error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to load conversation summaries for user {}", currentUserId, e);
             return List.of(); // Retourner une liste vide en cas d'erreur
         }
     }
 
-    private ConversationSummaryDto buildConversationSummary(Conversation conversation, Long currentUserId) {
-        try {
-            System.out.println("[ConversationSummaryService] Building summary for conversation ID: " + conversation.getId());
-            
-            // Trouver la contrepartie (l'autre utilisateur)
-            Optional<User> counterpartOpt = conversation.getParticipants().stream()
-                    .filter(user -> !user.getId().equals(currentUserId))
-                    .findFirst();
-
-            if (counterpartOpt.isEmpty()) {
-                System.out.println("[ConversationSummaryService] No counterpart found for conversation ID: " + conversation.getId());
-                return null; // Pas de contrepartie trouvée
-            }
-
-            User counterpart = counterpartOpt.get();
-            UserSummaryDto counterpartDto = new UserSummaryDto(
-                    counterpart.getId(),
-                    counterpart.getName(),
-                    counterpart.getAvatar(),
-                    counterpart.isOnline()
-            );
-
-            // Récupérer le dernier message
-            Optional<Message> lastMessageOpt = messageRepository
-                    .findTopByConversationOrderByTimestampDesc(conversation);
-
-            MessageSummaryDto lastMessageDto = null;
-            String lastActivityAt = conversation.getLastMessageTime() != null 
-                    ? conversation.getLastMessageTime().toString() 
-                    : null;
-
-            if (lastMessageOpt.isPresent()) {
-                Message lastMessage = lastMessageOpt.get();
-                lastMessageDto = new MessageSummaryDto(
-                        lastMessage.getId(),
-                        lastMessage.getText(),
-                        lastMessage.getSender().getId(),
-                        lastMessage.getTimestamp().toString()
-                );
-                lastActivityAt = lastMessage.getTimestamp().toString();
-                System.out.println("[ConversationSummaryService] Found last message: " + lastMessage.getText());
-            } else {
-                System.out.println("[ConversationSummaryService] No messages found for conversation ID: " + conversation.getId());
-            }
+    private static ConversationSummaryDto toSummary(InboxEntry entry, Integer unreadCount) {
+        UserSummaryDto counterpartDto = new UserSummaryDto(
+                entry.getCounterpartId(),
+                entry.getCounterpartName(),
+                entry.getCounterpartAvatar(),
+                entry.isCounterpartOnline()
+        );
 
-            // TODO: Calculer le nombre de messages non lus
-            Integer unreadCount = 0;
-
-            ConversationSummaryDto summary = new ConversationSummaryDto(
-                    conversation.getId(),
-                    counterpartDto,
-                    lastMessageDto,
-                    lastActivityAt,
-                    unreadCount
+        MessageSummaryDto lastMessageDto = null;
+        if (entry.getLastMessageId() != null) {
+            lastMessageDto = new MessageSummaryDto(
+                    entry.getLastMessageId(),
+                    entry.getLastMessagePreview(),
+                    entry.getLastMessageSenderId(),
+                    entry.getLastMessageAt() != null ? entry.getLastMessageAt().toString() : null
             );
-            
-            System.out.println("[ConversationSummaryService] Built summary for conversation with " + counterpart.getName());
-            return summary;
-        } catch (Exception e) {
-            System.err.println("[ConversationSummaryService] Error building summary for conversation ID: " + conversation.getId() + " - " + e.getMessage());
-            e.printStackTrace();
-            return null;
         }
+
+        return new ConversationSummaryDto(
+                entry.getConversationId(),
+                counterpartDto,
+                lastMessageDto,
+                entry.getLastActivityAt().toString(),
+                unreadCount
+        );
     }
 }
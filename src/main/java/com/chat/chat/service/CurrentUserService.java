@@ -0,0 +1,73 @@
+package com.chat.chat.service;
+
+import com.chat.chat.dto.UserProfile;
+import com.chat.chat.model.User;
+import com.chat.chat.repository.UserRepository;
+import com.chat.chat.security.ChatPrincipal;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Who is calling, without a user lookup on the common path.
+ *
+ * The id comes from the {@link ChatPrincipal} built from the token claims; only tokens issued
+ * before the "uid" claim existed fall back to a query by email. Profiles are kept as short-lived
+ * snapshots ({@code snapshot-ttl-ms}, 0 disables them) that profile updates invalidate.
+ */
+@Service
+public class CurrentUserService {
+
+    private final UserRepository userRepository;
+    private final Cache<Long, UserProfile> snapshots;
+
+    public CurrentUserService(UserRepository userRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.users.snapshot-ttl-ms:30000}") long snapshotTtlMs,
+                              @Value("${app.users.snapshot-max-size:100000}") long snapshotMaxSize) {
+        this.userRepository = userRepository;
+        this.snapshots = snapshotTtlMs > 0
+                ? Caffeine.newBuilder()
+                    .expireAfterWrite(Duration.ofMillis(snapshotTtlMs))
+                    .maximumSize(snapshotMaxSize)
+                    .recordStats()
+                    .build()
+                : null;
+        if (snapshots != null) CaffeineCacheMetrics.monitor(meterRegistry, snapshots, "users.snapshot");
+    }
+
+    /** Id of the authenticated user, null when anonymous or unknown. */
+    public Long id(Principal principal) {
+        ChatPrincipal chat = ChatPrincipal.of(principal);
+        if (chat != null) return chat.id();
+        if (principal == null || principal.getName() == null || "anonymousUser".equals(principal.getName())) return null;
+        return userRepository.findIdByEmail(principal.getName()).orElse(null);
+    }
+
+    /** Profile of the user; the online flag is the one stored with the snapshot. */
+    public Optional<UserProfile> profile(Long userId) {
+        if (snapshots == null) return userRepository.findById(userId).map(CurrentUserService::toProfile);
+        UserProfile cached = snapshots.get(userId, id -> userRepository.findById(id).map(CurrentUserService::toProfile).orElse(null));
+        return Optional.ofNullable(cached).map(CurrentUserService::copy);
+    }
+
+    /** Drops the snapshot after a profile change. */
+    public void invalidate(Long userId) {
+        if (snapshots != null && userId != null) snapshots.invalidate(userId);
+    }
+
+    public static UserProfile toProfile(User u) {
+        return new UserProfile(u.getId(), u.getName(), u.getEmail(), u.getAvatar(), u.getStatusMessage(), u.isOnline());
+    }
+
+    private static UserProfile copy(UserProfile p) {
+        return new UserProfile(p.getId(), p.getName(), p.getEmail(), p.getAvatar(), p.getStatusMessage(), p.isOnline());
+    }
+}
@@ -0,0 +1,154 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Conversation;
+import com.chat.chat.model.InboxEntry;
+import com.chat.chat.model.Message;
+import com.chat.chat.model.User;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.ConversationSummaryRow;
+import com.chat.chat.repository.InboxEntryRepository;
+import com.chat.chat.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains the per-user inbox projection ({@link InboxEntry}) on write and serves it on read.
+ *
+ * Conversations that predate the projection are backfilled the first time the user's inbox is
+ * read; {@code User.inboxBuilt} records that it was done, whatever rows were added since.
+ */
+@Slf4j
+@Service
+public class InboxService {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    private final InboxEntryRepository inboxEntryRepository;
+    private final ConversationRepository conversationRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate rebuildTx;
+    private final Set<Long> built = ConcurrentHashMap.newKeySet(); // users known to be backfilled
+
+    public InboxService(InboxEntryRepository inboxEntryRepository, ConversationRepository conversationRepository,
+                        UserRepository userRepository, PlatformTransactionManager transactionManager) {
+        this.inboxEntryRepository = inboxEntryRepository;
+        this.conversationRepository = conversationRepository;
+        this.userRepository = userRepository;
+        this.rebuildTx = new TransactionTemplate(transactionManager);
+        this.rebuildTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /** Creates the inbox rows of a new conversation, one per participant. */
+    @Transactional
+    public void register(Conversation conversation) {
+        Instant activity = conversation.getLastMessageTime() != null ? conversation.getLastMessageTime() : Instant.now();
+        for (User user : conversation.getParticipants()) {
+            if (inboxEntryRepository.existsByUserIdAndConversationId(user.getId(), conversation.getId())) continue;
+            Optional<User> counterpart = conversation.getParticipants().stream()
+                    .filter(p -> !p.getId().equals(user.getId()))
+                    .min(Comparator.comparing(User::getId));
+            if (counterpart.isEmpty()) continue;
+            inboxEntryRepository.save(InboxEntry.builder()
+                    .userId(user.getId())
+                    .conversationId(conversation.getId())
+                    .counterpartId(counterpart.get().getId())
+                    .counterpartName(counterpart.get().getName())
+                    .counterpartAvatar(counterpart.get().getAvatar())
+                    .counterpartOnline(counterpart.get().isOnline())
+                    .lastActivityAt(activity)
+                    .build());
+        }
+    }
+
+    @Transactional
+    public void onMessage(Message message) {
+        inboxEntryRepository.applyNewMessage(
+                message.getConversation().getId(),
+                message.getId(),
+                preview(message.getText()),
+                message.getSender().getId(),
+                message.getTimestamp());
+    }
+
+    @Transactional
+    public void onProfileChange(User user) {
+        inboxEntryRepository.updateCounterpart(user.getId(), user.getName(), user.getAvatar());
+    }
+
+    /**
+     * One page of the user's inbox, most recent activity first. The cursor is the
+     * (lastActivityAt, conversationId) pair of the last row of the previous page.
+     */
+    public List<InboxEntry> page(Long userId, Instant beforeActivity, Long beforeConversationId, int limit) {
+        if (!built.contains(userId)) {
+            if (!userRepository.findInboxBuiltById(userId).orElse(true)) rebuild(userId);
+            built.add(userId);
+        }
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        if (beforeActivity != null && beforeConversationId != null) {
+            return inboxEntryRepository.findPageBefore(userId, beforeActivity, beforeConversationId, page);
+        }
+        return inboxEntryRepository.findFirstPage(userId, page);
+    }
+
+    /**
+     * Adds the conversations missing from the user's projection (created before it existed) from
+     * the participant-indexed summary query, then marks the user as built.
+     */
+    private void rebuild(Long userId) {
+        try {
+            rebuildTx.executeWithoutResult(status -> {
+                Set<Long> present = new HashSet<>(inboxEntryRepository.findConversationIdsByUserId(userId));
+                List<InboxEntry> missing = conversationRepository.findSummaryRowsForUser(userId).stream()
+                        .filter(row -> !present.contains(row.conversationId()))
+                        .map(row -> toEntry(userId, row))
+                        .toList();
+                inboxEntryRepository.saveAll(missing);
+                userRepository.markInboxBuilt(userId);
+                log.info("Rebuilt inbox of user {} ({} conversations added)", userId, missing.size());
+            });
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Inbox of user {} rebuilt concurrently", userId);
+        }
+    }
+
+    private static InboxEntry toEntry(Long userId, ConversationSummaryRow row) {
+        Instant activity = row.lastMessageTimestamp() != null ? row.lastMessageTimestamp()
+                : row.lastMessageTime() != null ? row.lastMessageTime() : Instant.EPOCH;
+        return InboxEntry.builder()
+                .userId(userId)
+                .conversationId(row.conversationId())
+                .counterpartId(row.counterpartId())
+                .counterpartName(row.counterpartName())
+                .counterpartAvatar(row.counterpartAvatar())
+                .counterpartOnline(row.counterpartOnline())
+                .lastMessageId(row.lastMessageId())
+                .lastMessagePreview(preview(row.lastMessageText()))
+                .lastMessageSenderId(row.lastMessageSenderId())
+                .lastMessageAt(row.lastMessageTimestamp())
+                .lastActivityAt(activity)
+                .build();
+    }
+
+    static String preview(String text) {
+        if (text == null || text.length() <= InboxEntry.PREVIEW_LENGTH) return text;
+        int end = InboxEntry.PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(text.charAt(end - 1))) end--; // don't split an emoji
+        return text.substring(0, end);
+    }
+}
@@ -0,0 +1,71 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.repository.MediaRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Content type and hash of stored files by URL, so serving a file needs no query and no
+ * content-type probing. The type is the one recorded at upload, or guessed from the extension
+ * for files without a (valid) one. A file's row never changes; URLs without a row are
+ * remembered too, for {@code metadata-ttl-ms} like the others. With the broker relay
+ * ({@link ClusterMode}) a file uploaded through another node could be served with the
+ * remembered guess, so every lookup reads the row.
+ */
+@Service
+public class MediaMetadataCache {
+
+    /** {@code contentHash} is null for files stored before content addressing. */
+    public record StoredFile(MediaType contentType, String contentHash) {}
+
+    private final MediaRepository mediaRepository;
+    private final boolean enabled;
+    private final LoadingCache<String, StoredFile> files;
+
+    public MediaMetadataCache(MediaRepository mediaRepository,
+                              MeterRegistry meterRegistry,
+                              ClusterMode clusterMode,
+                              @Value("${app.media.metadata-cache-size:10000}") long maxSize,
+                              @Value("${app.media.metadata-ttl-ms:600000}") long ttlMs) {
+        this.mediaRepository = mediaRepository;
+        this.enabled = clusterMode.nodeLocalCaches();
+        this.files = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build(this::load);
+        CaffeineCacheMetrics.monitor(meterRegistry, files, "media.metadata");
+    }
+
+    public StoredFile lookup(String url) {
+        return enabled ? files.get(url) : load(url);
+    }
+
+    private StoredFile load(String url) {
+        return mediaRepository.findByUrl(url)
+                .map(m -> new StoredFile(contentTypeOf(m.getMimeType(), url), m.getContentHash()))
+                .orElseGet(() -> new StoredFile(contentTypeOf(null, url), null));
+    }
+
+    private static MediaType contentTypeOf(String mimeType, String url) {
+        if (mimeType != null) {
+            try {
+                MediaType type = MediaType.parseMediaType(mimeType);
+                if (type.isConcrete()) return type;
+            } catch (InvalidMediaTypeException ignored) {
+                // declared by the client: fall back to the extension
+            }
+        }
+        return MediaTypeFactory.getMediaType(url).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
@@ -0,0 +1,224 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Media;
+import com.chat.chat.repository.MediaRepository;
+import com.chat.chat.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed media files: each distinct content is stored once, as
+ * {@code <upload dir>/<type>/<sha256><ext>}, and uploading the same bytes again returns the
+ * existing {@link Media} without writing them (the hash column has a unique index). The
+ * media's original name is the first uploader's: callers answer with their own file name.
+ *
+ * Messages and avatars hold references ({@code refCount}). A file nothing references is kept
+ * for {@code unreferenced-grace-ms}, which covers the time between an upload and the message
+ * that uses it, then the sweeper deletes it. Files stored before content addressing have no
+ * hash and are never swept. Storing and sweeping the same hash are serialized on this node.
+ */
+@Slf4j
+@Service
+public class MediaStore {
+
+    private static final int SWEEP_BATCH = 500;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    public record Stored(Media media, boolean duplicate) {}
+
+    private final MediaRepository mediaRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate tx;
+    private final Path uploadDir;
+    private final Path incomingDir;
+    private final Duration grace;
+    private final ReentrantLock[] locks = new ReentrantLock[64];
+
+    public MediaStore(MediaRepository mediaRepository,
+                      UserRepository userRepository,
+                      PlatformTransactionManager transactionManager,
+                      @Value("${app.upload.dir:uploads}") String uploadDir,
+                      @Value("${app.media.unreferenced-grace-ms:86400000}") long graceMs) {
+        this.mediaRepository = mediaRepository;
+        this.userRepository = userRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.uploadDir = Paths.get(uploadDir);
+        this.incomingDir = this.uploadDir.resolve(".incoming");
+        this.grace = Duration.ofMillis(graceMs);
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Stores the file at {@code source}, whose SHA-256 is {@code sha256}. The file is moved into
+     * place, never copied; when the content is already stored it is deleted and the existing
+     * media returned.
+     */
+    public Stored store(Path source, String sha256, String originalName, String mimeType, long size, Long userId) throws IOException {
+        ReentrantLock lock = lockOf(sha256);
+        lock.lock();
+        try {
+            Optional<Media> existing = findByHash(sha256);
+            if (existing.isPresent()) {
+                Files.deleteIfExists(source);
+                return new Stored(existing.get(), true);
+            }
+            String fileType = fileTypeOf(mimeType);
+            String storedName = sha256 + extensionOf(originalName);
+            Path target = uploadDir.resolve(fileType).resolve(storedName);
+            Files.createDirectories(target.getParent());
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+
+            Media media = tx.execute(status -> mediaRepository.save(Media.builder()
+                    .originalName(originalName)
+                    .storedName(storedName)
+                    .fileType(fileType)
+                    .mimeType(mimeType)
+                    .size(size)
+                    .url("/api/media/files/" + fileType + "/" + storedName)
+                    .uploadTime(LocalDateTime.now())
+                    .contentHash(sha256)
+                    .unreferencedSince(Instant.now())
+                    .user(userId == null ? null : userRepository.getReferenceById(userId))
+                    .build()));
+            return new Stored(media, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a multipart upload. The spooled file is hashed first, so a duplicate is never
+     * written; otherwise it is moved (the spool is under the upload dir) and stored. The lookup
+     * holds the hash's lock, like the sweeper: the media found has had its grace period
+     * restarted before the sweeper can delete it.
+     */
+    public Stored store(MultipartFile file, Long userId) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_BYTES];
+        try (InputStream in = file.getInputStream()) {
+            for (int n; (n = in.read(buffer)) >= 0; ) digest.update(buffer, 0, n);
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        ReentrantLock lock = lockOf(sha256);
+        lock.lock();
+        try {
+            Optional<Media> existing = findByHash(sha256);
+            if (existing.isPresent()) return new Stored(existing.get(), true);
+        } finally {
+            lock.unlock();
+        }
+
+        Files.createDirectories(incomingDir);
+        Path incoming = incomingDir.resolve(UUID.randomUUID() + ".tmp").toAbsolutePath();
+        file.transferTo(incoming.toFile());
+        try {
+            return store(incoming, sha256, file.getOriginalFilename(), file.getContentType(), file.getSize(), userId);
+        } finally {
+            Files.deleteIfExists(incoming);
+        }
+    }
+
+    /**
+     * The media holding these bytes, if any; its grace period restarts as it is about to be
+     * reused. Callers hold the hash's lock, or the sweeper may delete the media they got.
+     */
+    private Optional<Media> findByHash(String sha256) {
+        Optional<Media> media = mediaRepository.findByContentHash(sha256.toLowerCase());
+        media.ifPresent(m -> tx.executeWithoutResult(status -> mediaRepository.touch(m.getId(), Instant.now())));
+        return media;
+    }
+
+    /** Adds references from messages, in the caller's transaction: media id to message count. */
+    public void retain(Map<Long, Integer> references) {
+        references.forEach(mediaRepository::retain);
+    }
+
+    /** Moves an avatar reference from one URL to another; URLs that are not stored files are ignored. */
+    public void replaceReference(String oldUrl, String newUrl) {
+        if (Objects.equals(oldUrl, newUrl)) return;
+        tx.executeWithoutResult(status -> {
+            if (newUrl != null) mediaRepository.retainByUrl(newUrl);
+            if (oldUrl != null) mediaRepository.releaseByUrl(oldUrl, Instant.now());
+        });
+    }
+
+    /** Deletes the files (and rows) nothing has referenced for the grace period. */
+    @Scheduled(fixedDelayString = "${app.media.sweep-ms:3600000}")
+    public void sweepUnreferenced() {
+        Instant cutoff = Instant.now().minus(grace);
+        List<Media> unreferenced;
+        int swept = 0;
+        do {
+            unreferenced = mediaRepository.findUnreferenced(cutoff, PageRequest.of(0, SWEEP_BATCH));
+            for (Media media : unreferenced) {
+                ReentrantLock lock = lockOf(media.getContentHash());
+                lock.lock();
+                try {
+                    Integer deleted = tx.execute(status -> mediaRepository.deleteUnreferenced(media.getId(), cutoff));
+                    if (deleted != null && deleted == 1) {
+                        Files.deleteIfExists(uploadDir.resolve(media.getFileType()).resolve(media.getStoredName()));
+                        swept++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not sweep media {}: {}", media.getId(), e.getMessage());
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } while (unreferenced.size() == SWEEP_BATCH && swept > 0);
+        if (swept > 0) log.info("Swept {} unreferenced media files", swept);
+    }
+
+    /** 'image', 'video', 'audio', 'pdf' or 'document', the sub-directory of the stored file. */
+    public static String fileTypeOf(String contentType) {
+        if (contentType == null) return "document";
+        if (contentType.startsWith("image/")) return "image";
+        if (contentType.startsWith("video/")) return "video";
+        if (contentType.startsWith("audio/")) return "audio";
+        if (contentType.equals("application/pdf")) return "pdf";
+        return "document";
+    }
+
+    public static String extensionOf(String originalName) {
+        if (originalName == null || !originalName.contains(".")) return "";
+        String extension = originalName.substring(originalName.lastIndexOf('.'));
+        return extension.matches("\\.[A-Za-z0-9]{1,10}") ? extension : "";
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ReentrantLock lockOf(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), locks.length)];
+    }
+}
@@ -0,0 +1,294 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Media;
+import com.chat.chat.model.UploadSession;
+import com.chat.chat.repository.UploadSessionRepository;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resumable uploads, modelled on tus: create a session with the total length, append chunks
+ * at the current offset, then complete it.
+ *
+ * Chunks are streamed from the request body into {@code .incoming/<id>.part} through a file
+ * channel and hashed (SHA-256) on the way; completing hands the part file to {@link MediaStore},
+ * which moves it into place (each byte is written once) or drops it if the content is stored. The offset is persisted after the chunk has been forced to disk: a
+ * chunk cut short keeps what arrived and the client resumes from the offset it reads back.
+ * The digest state is kept in memory; after a restart the part file is hashed once up to the
+ * offset. Sessions untouched for {@code session-ttl-ms} are swept with their part file.
+ */
+@Slf4j
+@Service
+public class MediaUploadService {
+
+    private static final int SWEEP_BATCH = 500;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    public enum Reason { INVALID, NOT_FOUND, FORBIDDEN, BUSY, OFFSET_MISMATCH, TOO_LARGE, INCOMPLETE, CHECKSUM_MISMATCH }
+
+    /** A request the upload protocol refuses; {@code offset} is the session's current offset, when known. */
+    @Getter
+    public static class UploadException extends RuntimeException {
+        private final Reason reason;
+        private final long offset;
+
+        public UploadException(Reason reason, long offset, String message) {
+            super(message);
+            this.reason = reason;
+            this.offset = offset;
+        }
+    }
+
+    /** {@code originalName} is this upload's, not the one stored with a shared media. */
+    public record CompletedUpload(Media media, String originalName, String sha256) {}
+
+    /** Hashing state of a session on this node; the lock serializes its chunks. */
+    private static final class Progress {
+        final ReentrantLock lock = new ReentrantLock();
+        MessageDigest digest;
+        long hashed = -1; // offset the digest covers, -1 = unknown
+    }
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final MediaStore mediaStore;
+    private final TransactionTemplate tx;
+    private final Path incomingDir;
+    private final long maxBytes;
+    private final Duration sessionTtl;
+    private final Map<String, Progress> progress = new ConcurrentHashMap<>();
+
+    public MediaUploadService(UploadSessionRepository uploadSessionRepository,
+                              MediaStore mediaStore,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${app.upload.dir:uploads}") String uploadDir,
+                              @Value("${app.upload.max-bytes:10485760}") long maxBytes,
+                              @Value("${app.upload.session-ttl-ms:86400000}") long sessionTtlMs) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.mediaStore = mediaStore;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.incomingDir = Paths.get(uploadDir).resolve(".incoming");
+        this.maxBytes = maxBytes;
+        this.sessionTtl = Duration.ofMillis(sessionTtlMs);
+    }
+
+    public UploadSession create(Long userId, String originalName, String mimeType, long length) throws IOException {
+        if (userId == null) throw new UploadException(Reason.FORBIDDEN, -1, "Uploads need an authenticated user");
+        if (length <= 0) throw new UploadException(Reason.INVALID, 0, "Le fichier est vide");
+        if (length > maxBytes) throw new UploadException(Reason.TOO_LARGE, 0, "La taille du fichier dépasse la limite autorisée");
+        Instant now = Instant.now();
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(userId)
+                .originalName(originalName)
+                .mimeType(mimeType)
+                .fileType(MediaStore.fileTypeOf(mimeType))
+                .uploadLength(length)
+                .uploadOffset(0)
+                .createdAt(now)
+                .expiresAt(now.plus(sessionTtl))
+                .build();
+        Files.createDirectories(incomingDir);
+        Files.createFile(partFile(session.getId()));
+        return uploadSessionRepository.save(session);
+    }
+
+    public UploadSession status(String id, Long userId) {
+        return load(id, userId);
+    }
+
+    /**
+     * Appends the request body at {@code offset}, which must be the current offset. Returns the
+     * new offset; when the body is cut short the bytes received are kept before the error is
+     * rethrown.
+     */
+    public long append(String id, Long userId, long offset, InputStream body) throws IOException {
+        Progress state = lock(id, userId);
+        try {
+            UploadSession session = load(id, userId); // the offset as of now that the lock is held
+            if (offset != session.getUploadOffset()) {
+                throw new UploadException(Reason.OFFSET_MISMATCH, session.getUploadOffset(), "Expected offset " + session.getUploadOffset());
+            }
+            Path part = partFile(id);
+            syncDigest(state, part, offset);
+
+            long remaining = session.getUploadLength() - offset;
+            long written = 0;
+            boolean overflow = false;
+            IOException interrupted = null;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                channel.position(offset);
+                while (true) {
+                    // One byte more than expected is enough to detect an oversized chunk. Reading
+                    // the stream directly (not through a channel) loses nothing when it fails.
+                    int n;
+                    try {
+                        n = body.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), remaining - written + 1));
+                    } catch (IOException e) {
+                        interrupted = e; // client gone: keep what arrived
+                        break;
+                    }
+                    if (n < 0) break;
+                    if (written + n > remaining) {
+                        overflow = true;
+                        n = (int) (remaining - written);
+                    }
+                    buffer.clear().limit(n);
+                    try {
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                    } catch (IOException e) {
+                        state.hashed = -1;
+                        throw e;
+                    }
+                    state.digest.update(buffer.array(), 0, n);
+                    written += n;
+                    state.hashed = offset + written;
+                    if (overflow) break;
+                }
+                channel.force(false); // before the offset says these bytes are there
+            }
+            long newOffset = offset + written;
+            if (written > 0) {
+                tx.executeWithoutResult(status -> uploadSessionRepository.updateOffset(id, newOffset, Instant.now().plus(sessionTtl)));
+            }
+            if (overflow) throw new UploadException(Reason.TOO_LARGE, newOffset, "Chunk exceeds the declared length");
+            if (interrupted != null) throw interrupted;
+            return newOffset;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the complete file through {@link MediaStore}, which returns the existing media when
+     * the content is already stored. With {@code expectedSha256} a mismatching file is discarded
+     * along with the session.
+     */
+    public CompletedUpload complete(String id, Long userId, String expectedSha256) throws IOException {
+        Progress state = lock(id, userId);
+        try {
+            UploadSession session = load(id, userId);
+            if (session.getUploadOffset() != session.getUploadLength()) {
+                throw new UploadException(Reason.INCOMPLETE, session.getUploadOffset(), "Upload is not complete");
+            }
+            Path part = partFile(id);
+            syncDigest(state, part, session.getUploadOffset());
+            String sha256 = HexFormat.of().formatHex(state.digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+                discard(id);
+                throw new UploadException(Reason.CHECKSUM_MISMATCH, 0, "Checksum mismatch");
+            }
+
+            MediaStore.Stored stored = mediaStore.store(part, sha256, session.getOriginalName(), session.getMimeType(),
+                    session.getUploadLength(), session.getUserId());
+            uploadSessionRepository.deleteById(id);
+            progress.remove(id);
+            return new CompletedUpload(stored.media(), session.getOriginalName(), sha256);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    public void cancel(String id, Long userId) throws IOException {
+        load(id, userId);
+        Progress state = progress.get(id);
+        if (state != null && !state.lock.tryLock()) throw new UploadException(Reason.BUSY, -1, "A chunk is being written");
+        try {
+            discard(id);
+        } finally {
+            if (state != null) state.lock.unlock();
+        }
+    }
+
+    /** Deletes the sessions (and part files) of abandoned uploads. */
+    @Scheduled(fixedDelayString = "${app.upload.sweep-ms:600000}")
+    public void sweepExpired() {
+        List<String> expired;
+        int swept = 0;
+        do {
+            expired = uploadSessionRepository.findExpiredIds(Instant.now(), PageRequest.of(0, SWEEP_BATCH));
+            for (String id : expired) {
+                Progress state = progress.get(id);
+                if (state != null && !state.lock.tryLock()) continue; // a chunk is arriving right now
+                try {
+                    discard(id);
+                    swept++;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not sweep upload {}: {}", id, e.getMessage());
+                } finally {
+                    if (state != null) state.lock.unlock();
+                }
+            }
+        } while (expired.size() == SWEEP_BATCH && swept > 0);
+        if (swept > 0) log.info("Swept {} expired uploads", swept);
+    }
+
+    /** Takes the session's chunk lock, after checking it exists so unknown ids leave no state behind. */
+    private Progress lock(String id, Long userId) {
+        load(id, userId);
+        Progress state = progress.computeIfAbsent(id, k -> new Progress());
+        if (!state.lock.tryLock()) throw new UploadException(Reason.BUSY, -1, "Another chunk is being written");
+        return state;
+    }
+
+    private UploadSession load(String id, Long userId) {
+        UploadSession session = uploadSessionRepository.findById(id)
+                .orElseThrow(() -> new UploadException(Reason.NOT_FOUND, -1, "Unknown upload"));
+        if (userId == null || !userId.equals(session.getUserId())) {
+            throw new UploadException(Reason.FORBIDDEN, -1, "Not your upload");
+        }
+        return session;
+    }
+
+    /** Brings the digest to {@code offset}, re-reading the part file when this node lost track. */
+    private void syncDigest(Progress state, Path part, long offset) throws IOException {
+        if (state.digest != null && state.hashed == offset) return;
+        state.digest = MediaStore.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < offset) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), offset - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) throw new IOException("Part file shorter than the recorded offset: " + part);
+                state.digest.update(buffer.array(), 0, n);
+                position += n;
+            }
+        }
+        state.hashed = offset;
+    }
+
+    private void discard(String id) throws IOException {
+        uploadSessionRepository.deleteById(id);
+        Files.deleteIfExists(partFile(id));
+        progress.remove(id);
+    }
+
+    private Path partFile(String id) {
+        return incomingDir.resolve(id + ".part");
+    }
+}
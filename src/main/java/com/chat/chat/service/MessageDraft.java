@@ -0,0 +1,8 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Message;
+
+/**
+ * An inbound chat message that has not been persisted yet.
+ */
+public record MessageDraft(Long conversationId, Long senderId, String text, Message.Type type, String mediaUrl) {}
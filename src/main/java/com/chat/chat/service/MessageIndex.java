@@ -0,0 +1,487 @@
+package com.chat.chat.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over message texts, segmented by conversation.
+ *
+ * New messages go to an in-memory buffer (searchable at once) which {@link #flush} writes as
+ * an immutable segment file; {@link #merge} rewrites the smallest segments into one when there
+ * are too many. Segments are memory-mapped, so a restart only reopens them: the messages to
+ * index again are the ones above {@link #watermark()}.
+ *
+ * Terms are the lower-cased, accent-free words of the text. A query is a list of words, all
+ * required; {@code word*} matches any term starting with {@code word} and {@code "a b"} the
+ * consecutive words. A message indexed twice (a catch-up overlapping live indexing) is
+ * merged when read.
+ *
+ * Adds lock the buffer only; searches read a snapshot of the segment list and never wait for
+ * a flush or a merge. Flushes and merges are serialized.
+ */
+@Slf4j
+public class MessageIndex {
+
+    static final int MAX_TERM_LENGTH = 64;
+    static final int MAX_PREFIX_TERMS = 256;
+    private static final int MAX_CLAUSES = 8;
+    private static final long MAX_MERGED_BYTES = 1L << 30;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long[] NONE = new long[0];
+
+    /** Segments on disk, the buffer taking adds and the one being written, if any. */
+    private record View(List<MessageIndexSegment> segments, Buffer active, Buffer flushing) {}
+
+    /** Words of a query that must appear consecutively (a single word for unquoted terms). */
+    record Clause(String[] terms, boolean[] prefix) {}
+
+    private final Path dir;
+    private final Object maintenance = new Object();
+    private volatile View view;
+    private long nextGeneration;
+
+    public MessageIndex(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<MessageIndexSegment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // interrupted flush or merge
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(MessageIndexSegment.open(file));
+                    nextGeneration = Math.max(nextGeneration, generationOf(name) + 1);
+                }
+            }
+        } catch (IOException e) {
+            // A segment that cannot be read makes the watermark meaningless: start over
+            log.warn("Search index in {} is unreadable, rebuilding it: {}", dir, e.getMessage());
+            segments.clear();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) Files.deleteIfExists(file);
+            }
+        }
+        this.view = new View(List.copyOf(segments), new Buffer(), null);
+    }
+
+    /** Indexes the text of a message. */
+    public void add(long messageId, long conversationId, String text) {
+        if (text == null || text.isBlank()) return;
+        String[] tokens = tokenize(ContactSearchIndex.normalize(text));
+        if (tokens.length == 0) return;
+        // The buffer refuses adds once frozen for a flush: retry on its replacement
+        while (!view.active().add(messageId, conversationId, tokens)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Ids of the messages of the given conversations matching {@code query}, newest first,
+     * below {@code beforeId} and at most {@code limit}.
+     */
+    public long[] search(String query, long[] conversationIds, long beforeId, int limit) {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) return NONE;
+        byte[][][] bytes = new byte[clauses.size()][][];
+        for (int c = 0; c < clauses.size(); c++) {
+            String[] terms = clauses.get(c).terms();
+            bytes[c] = new byte[terms.length][];
+            for (int t = 0; t < terms.length; t++) bytes[c][t] = terms[t].getBytes(StandardCharsets.UTF_8);
+        }
+
+        View snapshot = view;
+        long[] found = new long[16];
+        int count = 0;
+        for (long conversationId : conversationIds) {
+            long[] matches = null;
+            for (int c = 0; c < clauses.size() && (matches == null || matches.length > 0); c++) {
+                Clause clause = clauses.get(c);
+                MessagePostings[] postings = new MessagePostings[clause.terms().length];
+                for (int t = 0; t < postings.length; t++) {
+                    postings[t] = postings(snapshot, conversationId, clause.terms()[t], bytes[c][t], clause.prefix()[t]);
+                }
+                long[] clauseMatches = consecutive(postings, beforeId);
+                matches = matches == null ? clauseMatches : intersect(matches, clauseMatches);
+            }
+            if (matches == null) continue;
+            if (count + matches.length > found.length) found = Arrays.copyOf(found, Math.max(found.length * 2, count + matches.length));
+            System.arraycopy(matches, 0, found, count, matches.length);
+            count += matches.length;
+        }
+        Arrays.sort(found, 0, count);
+        int n = Math.min(limit, count);
+        long[] newestFirst = new long[n];
+        for (int i = 0; i < n; i++) newestFirst[i] = found[count - 1 - i];
+        return newestFirst;
+    }
+
+    /**
+     * Writes the buffered messages as a new segment. A failed write keeps them buffered (and
+     * searchable) and is retried by the next call. Returns whether a segment was written.
+     */
+    public boolean flush() throws IOException {
+        synchronized (maintenance) {
+            View current = view;
+            Buffer pending = current.flushing();
+            if (pending == null) {
+                if (current.active().isEmpty()) return false;
+                pending = current.active();
+                pending.freeze();
+                current = new View(current.segments(), new Buffer(), pending);
+                view = current;
+            }
+            MessageIndexSegment segment = write(pending);
+            List<MessageIndexSegment> segments = new ArrayList<>(current.segments());
+            segments.add(segment);
+            view = new View(List.copyOf(segments), current.active(), null);
+            return true;
+        }
+    }
+
+    /**
+     * When there are more than {@code maxSegments} segments, rewrites the smallest ones into a
+     * single segment (up to 1 GB). Returns whether a merge happened.
+     */
+    public boolean merge(int maxSegments) throws IOException {
+        synchronized (maintenance) {
+            View current = view;
+            if (current.segments().size() <= Math.max(1, maxSegments)) return false;
+            List<MessageIndexSegment> bySize = new ArrayList<>(current.segments());
+            bySize.sort(Comparator.comparingLong(MessageIndexSegment::sizeBytes));
+            // Merging the smallest half keeps the number of rewrites per message logarithmic
+            int wanted = Math.max(2, current.segments().size() - maxSegments / 2);
+            List<MessageIndexSegment> inputs = new ArrayList<>();
+            long bytes = 0;
+            for (MessageIndexSegment segment : bySize) {
+                if (inputs.size() == wanted || bytes + segment.sizeBytes() > MAX_MERGED_BYTES) break;
+                inputs.add(segment);
+                bytes += segment.sizeBytes();
+            }
+            if (inputs.size() < 2) return false;
+
+            MessageIndexSegment merged = write(inputs);
+            List<MessageIndexSegment> segments = new ArrayList<>(current.segments());
+            segments.removeAll(inputs);
+            segments.add(merged);
+            view = new View(List.copyOf(segments), current.active(), current.flushing());
+            // Searches still holding the old segments keep reading their mappings
+            for (MessageIndexSegment input : inputs) {
+                try {
+                    Files.deleteIfExists(input.path());
+                } catch (IOException e) {
+                    log.warn("Could not delete merged segment {}: {}", input.path(), e.getMessage());
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Highest message id written to a segment; 0 when nothing is on disk. */
+    public long watermark() {
+        long max = 0;
+        for (MessageIndexSegment segment : view.segments()) max = Math.max(max, segment.maxMessageId());
+        return max;
+    }
+
+    public int segmentCount() {
+        return view.segments().size();
+    }
+
+    public long diskBytes() {
+        long bytes = 0;
+        for (MessageIndexSegment segment : view.segments()) bytes += segment.sizeBytes();
+        return bytes;
+    }
+
+    /** Approximate heap held by messages not written to a segment yet, in bytes. */
+    public long bufferedBytes() {
+        View current = view;
+        return current.active().bytes() + (current.flushing() == null ? 0 : current.flushing().bytes());
+    }
+
+    // ---- Reading
+
+    private static MessagePostings postings(View view, long conversationId, String term, byte[] bytes, boolean prefix) {
+        MessagePostings out = new MessagePostings();
+        for (MessageIndexSegment segment : view.segments()) {
+            segment.collect(conversationId, bytes, prefix, MAX_PREFIX_TERMS, out);
+        }
+        if (view.flushing() != null) view.flushing().collect(conversationId, term, prefix, out);
+        view.active().collect(conversationId, term, prefix, out);
+        return out.normalized();
+    }
+
+    /** Ids (ascending, below {@code beforeId}) where the terms occur at consecutive positions. */
+    private static long[] consecutive(MessagePostings[] terms, long beforeId) {
+        MessagePostings first = terms[0];
+        long[] ids = new long[first.size()];
+        int n = 0;
+        int[] entries = new int[terms.length];
+        candidates:
+        for (int e = 0; e < first.size(); e++) {
+            long id = first.id(e);
+            if (id >= beforeId) break;
+            for (int t = 1; t < terms.length; t++) {
+                entries[t] = terms[t].find(id);
+                if (entries[t] < 0) continue candidates;
+            }
+            starts:
+            for (int p = 0; p < first.positionCount(e); p++) {
+                int start = first.position(e, p);
+                for (int t = 1; t < terms.length; t++) {
+                    if (!terms[t].hasPosition(entries[t], start + t)) continue starts;
+                }
+                ids[n++] = id;
+                break;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // ---- Writing
+
+    private MessageIndexSegment write(Buffer buffer) throws IOException {
+        return write(writer -> {
+            Long[] conversationIds = buffer.conversations.keySet().toArray(new Long[0]);
+            Arrays.sort(conversationIds);
+            for (Long conversationId : conversationIds) {
+                TreeMap<String, MessagePostings> terms = buffer.conversations.get(conversationId);
+                byte[][] keys = new byte[terms.size()][];
+                MessagePostings[] values = new MessagePostings[terms.size()];
+                Integer[] order = new Integer[terms.size()];
+                int i = 0;
+                for (Map.Entry<String, MessagePostings> entry : terms.entrySet()) {
+                    keys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    values[i] = entry.getValue();
+                    order[i] = i;
+                    i++;
+                }
+                // Segments order terms by UTF-8 bytes, which differs from String order beyond the BMP
+                Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(keys[x], keys[y]));
+                writer.beginConversation(conversationId);
+                for (int t : order) writer.addTerm(keys[t], values[t].normalized());
+                writer.endConversation();
+            }
+            return buffer.maxMessageId();
+        });
+    }
+
+    private MessageIndexSegment write(List<MessageIndexSegment> inputs) throws IOException {
+        return write(writer -> {
+            int k = inputs.size();
+            int[] conversation = new int[k];
+            int[] term = new int[k];
+            byte[][] heads = new byte[k][];
+            long maxMessageId = 0;
+            for (MessageIndexSegment input : inputs) maxMessageId = Math.max(maxMessageId, input.maxMessageId());
+            while (true) {
+                long next = Long.MAX_VALUE;
+                for (int s = 0; s < k; s++) {
+                    if (conversation[s] < inputs.get(s).conversationCount()) next = Math.min(next, inputs.get(s).conversationId(conversation[s]));
+                }
+                if (next == Long.MAX_VALUE) break;
+                for (int s = 0; s < k; s++) {
+                    MessageIndexSegment input = inputs.get(s);
+                    boolean has = conversation[s] < input.conversationCount() && input.conversationId(conversation[s]) == next;
+                    term[s] = 0;
+                    heads[s] = has && input.termCount(conversation[s]) > 0 ? input.term(conversation[s], 0) : null;
+                }
+                writer.beginConversation(next);
+                while (true) {
+                    byte[] smallest = null;
+                    for (byte[] head : heads) {
+                        if (head != null && (smallest == null || Arrays.compareUnsigned(head, smallest) < 0)) smallest = head;
+                    }
+                    if (smallest == null) break;
+                    MessagePostings postings = new MessagePostings();
+                    for (int s = 0; s < k; s++) {
+                        if (heads[s] == null || !Arrays.equals(heads[s], smallest)) continue;
+                        MessageIndexSegment input = inputs.get(s);
+                        input.readPostings(conversation[s], term[s], postings);
+                        heads[s] = ++term[s] < input.termCount(conversation[s]) ? input.term(conversation[s], term[s]) : null;
+                    }
+                    writer.addTerm(smallest, postings.normalized());
+                }
+                writer.endConversation();
+                for (int s = 0; s < k; s++) {
+                    MessageIndexSegment input = inputs.get(s);
+                    if (conversation[s] < input.conversationCount() && input.conversationId(conversation[s]) == next) conversation[s]++;
+                }
+            }
+            return maxMessageId;
+        });
+    }
+
+    private interface SegmentContent {
+        /** Feeds the writer and returns the segment's highest message id. */
+        long writeTo(MessageIndexSegment.Writer writer) throws IOException;
+    }
+
+    /** Writes to a temporary file, syncs it and renames it into place. */
+    private MessageIndexSegment write(SegmentContent content) throws IOException {
+        String name = String.format("segment-%016d%s", nextGeneration++, SEGMENT_SUFFIX);
+        Path tmp = dir.resolve(name + ".tmp");
+        Path target = dir.resolve(name);
+        try (MessageIndexSegment.Writer writer = new MessageIndexSegment.Writer(tmp)) {
+            writer.finish(content.writeTo(writer));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        return MessageIndexSegment.open(target);
+    }
+
+    private static long generationOf(String segmentName) {
+        try {
+            return Long.parseLong(segmentName.substring("segment-".length(), segmentName.length() - SEGMENT_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    // ---- Text
+
+    /** Words of a normalized text by position; words longer than the limit are skipped (null). */
+    static String[] tokenize(String normalized) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) start = i;
+            else if (!wordChar && start >= 0) {
+                tokens.add(i - start <= MAX_TERM_LENGTH ? normalized.substring(start, i) : null);
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /** Unquoted words are separate clauses; a quoted phrase is one clause. */
+    static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        if (query == null) return clauses;
+        String normalized = ContactSearchIndex.normalize(query);
+        List<String> phrase = new ArrayList<>();
+        List<Boolean> phrasePrefix = new ArrayList<>();
+        boolean quoted = false;
+        for (int i = 0; i < normalized.length() && clauses.size() < MAX_CLAUSES; ) {
+            char c = normalized.charAt(i);
+            if (c == '"') {
+                if (quoted) addClause(clauses, phrase, phrasePrefix);
+                quoted = !quoted;
+                i++;
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i))) i++;
+                String word = normalized.substring(start, i);
+                boolean prefix = i < normalized.length() && normalized.charAt(i) == '*';
+                phrase.add(word);
+                phrasePrefix.add(prefix);
+                if (!quoted) addClause(clauses, phrase, phrasePrefix);
+            } else {
+                i++;
+            }
+        }
+        if (clauses.size() < MAX_CLAUSES) addClause(clauses, phrase, phrasePrefix); // unterminated quote
+        return clauses;
+    }
+
+    private static void addClause(List<Clause> clauses, List<String> terms, List<Boolean> prefix) {
+        if (terms.isEmpty()) return;
+        boolean[] flags = new boolean[prefix.size()];
+        for (int i = 0; i < flags.length; i++) flags[i] = prefix.get(i);
+        clauses.add(new Clause(terms.toArray(new String[0]), flags));
+        terms.clear();
+        prefix.clear();
+    }
+
+    /** Messages not written to a segment yet: conversationId -> term -> postings. */
+    private static final class Buffer {
+
+        private final Map<Long, TreeMap<String, MessagePostings>> conversations = new HashMap<>();
+        private long maxMessageId;
+        private long bytes;
+        private boolean frozen;
+
+        synchronized boolean add(long messageId, long conversationId, String[] tokens) {
+            if (frozen) return false;
+            TreeMap<String, MessagePostings> terms = conversations.computeIfAbsent(conversationId, k -> new TreeMap<>());
+            for (int position = 0; position < tokens.length; position++) {
+                String token = tokens[position];
+                if (token == null) continue;
+                MessagePostings postings = terms.get(token);
+                if (postings == null) {
+                    postings = new MessagePostings();
+                    terms.put(token, postings);
+                    bytes += 120 + 2L * token.length(); // tree entry, string, empty postings
+                }
+                postings.add(messageId, position);
+            }
+            bytes += 12L * tokens.length;
+            maxMessageId = Math.max(maxMessageId, messageId);
+            return true;
+        }
+
+        synchronized void collect(long conversationId, String term, boolean prefix, MessagePostings out) {
+            TreeMap<String, MessagePostings> terms = conversations.get(conversationId);
+            if (terms == null) return;
+            if (!prefix) {
+                MessagePostings postings = terms.get(term);
+                if (postings != null) out.addAll(postings);
+                return;
+            }
+            int matched = 0;
+            for (MessagePostings postings : terms.subMap(term, term + Character.MAX_VALUE).values()) {
+                if (matched++ == MAX_PREFIX_TERMS) break;
+                out.addAll(postings);
+            }
+        }
+
+        /** No more adds: the buffer is about to be written. */
+        synchronized void freeze() {
+            frozen = true;
+        }
+
+        synchronized boolean isEmpty() {
+            return conversations.isEmpty();
+        }
+
+        synchronized long maxMessageId() {
+            return maxMessageId;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.chat.chat.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One immutable, memory-mapped segment of the message search index.
+ *
+ * The file is written front to back, so flushes and merges stream it:
+ * <pre>
+ *  per conversation: postings of its terms, its term entries, its term table
+ *  conversation directory: (conversationId long, termTable int, termCount int), ascending ids
+ *  footer: maxMessageId long, directory int, conversationCount int, version int, magic int
+ * </pre>
+ * A term entry is (length short, UTF-8 bytes, postings int, postingsLength int); the term table
+ * holds the entry offsets in unsigned byte order of the terms, so an exact or prefix lookup is
+ * a binary search within one conversation. Offsets are ints: a segment is at most 2 GB, the
+ * size of one mapping.
+ */
+final class MessageIndexSegment {
+
+    private static final int MAGIC = 0x4D534958; // "MSIX"
+    private static final int VERSION = 1;
+    private static final int FOOTER_BYTES = 24;
+    private static final int DIRECTORY_ENTRY_BYTES = 16;
+
+    private final Path path;
+    private final ByteBuffer buffer; // absolute reads only: shared by concurrent searches
+    private final long maxMessageId;
+    private final int directory;
+    private final int conversationCount;
+
+    private MessageIndexSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        int footer = buffer.capacity() - FOOTER_BYTES;
+        if (footer < 0 || buffer.getInt(footer + 20) != MAGIC || buffer.getInt(footer + 16) != VERSION) {
+            throw new IOException("Not a search index segment: " + path);
+        }
+        this.maxMessageId = buffer.getLong(footer);
+        this.directory = buffer.getInt(footer + 8);
+        this.conversationCount = buffer.getInt(footer + 12);
+    }
+
+    static MessageIndexSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Segment too large: " + path);
+            // The mapping outlives the channel; it is released when the segment is collected
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MessageIndexSegment(path, mapped);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long sizeBytes() {
+        return buffer.capacity();
+    }
+
+    /** Highest message id indexed in this segment. */
+    long maxMessageId() {
+        return maxMessageId;
+    }
+
+    int conversationCount() {
+        return conversationCount;
+    }
+
+    long conversationId(int index) {
+        return buffer.getLong(directory + index * DIRECTORY_ENTRY_BYTES);
+    }
+
+    int termCount(int index) {
+        return buffer.getInt(directory + index * DIRECTORY_ENTRY_BYTES + 12);
+    }
+
+    /** Index of the conversation in the directory, or a negative value. */
+    int findConversation(long conversationId) {
+        int low = 0, high = conversationCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = conversationId(mid);
+            if (id < conversationId) low = mid + 1;
+            else if (id > conversationId) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Appends to {@code out} the postings of {@code term} in the conversation, or of every term
+     * starting with it when {@code prefix} (at most {@code maxTerms} of them).
+     */
+    void collect(long conversationId, byte[] term, boolean prefix, int maxTerms, MessagePostings out) {
+        int conversation = findConversation(conversationId);
+        if (conversation < 0) return;
+        int count = termCount(conversation);
+        int low = 0, high = count - 1;
+        while (low <= high) { // first term >= the searched one
+            int mid = (low + high) >>> 1;
+            if (compare(entry(conversation, mid), term) < 0) low = mid + 1;
+            else high = mid - 1;
+        }
+        for (int t = low, matched = 0; t < count && matched < maxTerms; t++, matched++) {
+            int entry = entry(conversation, t);
+            if (prefix ? !startsWith(entry, term) : compare(entry, term) != 0) break;
+            readPostings(entry, out);
+        }
+    }
+
+    /** Term bytes of the {@code t}-th term of the conversation at {@code index}, for merges. */
+    byte[] term(int index, int t) {
+        int entry = entry(index, t);
+        byte[] term = new byte[buffer.getShort(entry)];
+        buffer.get(entry + 2, term);
+        return term;
+    }
+
+    void readPostings(int index, int t, MessagePostings out) {
+        readPostings(entry(index, t), out);
+    }
+
+    private void readPostings(int entry, MessagePostings out) {
+        int termEnd = entry + 2 + buffer.getShort(entry);
+        out.readFrom(buffer, buffer.getInt(termEnd), buffer.getInt(termEnd + 4));
+    }
+
+    private int entry(int conversation, int t) {
+        int table = buffer.getInt(directory + conversation * DIRECTORY_ENTRY_BYTES + 8);
+        return buffer.getInt(table + t * 4);
+    }
+
+    private int compare(int entry, byte[] term) {
+        int length = buffer.getShort(entry);
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int c = Integer.compare(buffer.get(entry + 2 + i) & 0xFF, term[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    private boolean startsWith(int entry, byte[] prefix) {
+        if (buffer.getShort(entry) < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(entry + 2 + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Streams a segment to a file: conversations in ascending id order, and within each the
+     * terms in unsigned byte order with normalized postings.
+     */
+    static final class Writer implements Closeable {
+
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final DataOutputStream entryOut = new DataOutputStream(entries);
+        private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        private final DataOutputStream directoryOut = new DataOutputStream(directory);
+        private int[] entryOffsets = new int[64];
+        private int termCount;
+        private long conversationId;
+        private int conversationCount;
+
+        Writer(Path path) throws IOException {
+            this.file = new FileOutputStream(path.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        }
+
+        void beginConversation(long conversationId) {
+            this.conversationId = conversationId;
+            this.termCount = 0;
+            entries.reset();
+        }
+
+        void addTerm(byte[] term, MessagePostings postings) throws IOException {
+            int offset = position();
+            int length = postings.writeTo(out);
+            if (termCount == entryOffsets.length) entryOffsets = Arrays.copyOf(entryOffsets, termCount * 2);
+            entryOffsets[termCount++] = entries.size();
+            entryOut.writeShort(term.length);
+            entryOut.write(term);
+            entryOut.writeInt(offset);
+            entryOut.writeInt(length);
+        }
+
+        void endConversation() throws IOException {
+            if (termCount == 0) return;
+            int base = position();
+            entries.writeTo(out);
+            int table = position();
+            for (int t = 0; t < termCount; t++) out.writeInt(base + entryOffsets[t]);
+            directoryOut.writeLong(conversationId);
+            directoryOut.writeInt(table);
+            directoryOut.writeInt(termCount);
+            conversationCount++;
+        }
+
+        /** Writes the directory and the footer and syncs the file. */
+        void finish(long maxMessageId) throws IOException {
+            int directoryOffset = position();
+            directory.writeTo(out);
+            out.writeLong(maxMessageId);
+            out.writeInt(directoryOffset);
+            out.writeInt(conversationCount);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+        }
+
+        private int position() throws IOException {
+            int size = out.size(); // saturates at Integer.MAX_VALUE
+            if (size == Integer.MAX_VALUE) throw new IOException("Segment exceeds 2 GB");
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.chat.chat.service;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings of one term in one conversation: message ids, each with the positions of the term
+ * in the message text, in flat primitive arrays.
+ *
+ * Entries are appended as they are read (several segments, the in-memory buffer) and
+ * {@link #normalized()} sorts them by id and merges duplicates. On disk an entry is a varint id
+ * delta, a varint position count and varint position deltas: a few bytes per occurrence
+ * instead of a long and an int array.
+ */
+final class MessagePostings {
+
+    private long[] ids = new long[4];
+    private int[] starts = new int[5]; // positions of entry i are positions[starts[i] .. starts[i + 1])
+    private int[] positions = new int[8];
+    private int size;
+    private int positionCount;
+
+    int size() {
+        return size;
+    }
+
+    long id(int entry) {
+        return ids[entry];
+    }
+
+    /**
+     * Appends a position. Increasing positions for the same id extend the same entry; anything
+     * else (a message indexed twice) starts a new one, merged by {@link #normalized()}.
+     */
+    void add(long messageId, int position) {
+        if (size == 0 || ids[size - 1] != messageId || position <= positions[positionCount - 1]) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                starts = Arrays.copyOf(starts, size * 2 + 1);
+            }
+            ids[size++] = messageId;
+        }
+        if (positionCount == positions.length) positions = Arrays.copyOf(positions, positionCount * 2);
+        positions[positionCount++] = position;
+        starts[size] = positionCount;
+    }
+
+    void addAll(MessagePostings other) {
+        for (int entry = 0; entry < other.size; entry++) {
+            for (int p = other.starts[entry]; p < other.starts[entry + 1]; p++) add(other.ids[entry], other.positions[p]);
+        }
+    }
+
+    /** Whether the term occurs at {@code position} in the message of the given entry. */
+    boolean hasPosition(int entry, int position) {
+        return Arrays.binarySearch(positions, starts[entry], starts[entry + 1], position) >= 0;
+    }
+
+    int positionCount(int entry) {
+        return starts[entry + 1] - starts[entry];
+    }
+
+    int position(int entry, int index) {
+        return positions[starts[entry] + index];
+    }
+
+    /** Index of the entry for {@code messageId}, or a negative value. Requires normalized postings. */
+    int find(long messageId) {
+        return Arrays.binarySearch(ids, 0, size, messageId);
+    }
+
+    /** These postings sorted by id, one entry per message, positions ascending. */
+    MessagePostings normalized() {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) sorted = ids[i - 1] < ids[i];
+        if (sorted) return this;
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+        MessagePostings result = new MessagePostings();
+        int[] merged = new int[8];
+        for (int i = 0; i < size; ) {
+            long id = ids[order[i]];
+            int count = 0;
+            for (; i < size && ids[order[i]] == id; i++) {
+                int entry = order[i];
+                int n = starts[entry + 1] - starts[entry];
+                if (count + n > merged.length) merged = Arrays.copyOf(merged, Math.max(merged.length * 2, count + n));
+                System.arraycopy(positions, starts[entry], merged, count, n);
+                count += n;
+            }
+            Arrays.sort(merged, 0, count);
+            for (int p = 0; p < count; p++) {
+                if (p == 0 || merged[p] != merged[p - 1]) result.add(id, merged[p]);
+            }
+        }
+        return result;
+    }
+
+    /** Writes normalized postings; returns the number of bytes written. */
+    int writeTo(DataOutput out) throws IOException {
+        int bytes = 0;
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += writeVarLong(out, ids[i] - previous);
+            previous = ids[i];
+            bytes += writeVarLong(out, starts[i + 1] - starts[i]);
+            int previousPosition = 0;
+            for (int p = starts[i]; p < starts[i + 1]; p++) {
+                bytes += writeVarLong(out, positions[p] - previousPosition);
+                previousPosition = positions[p];
+            }
+        }
+        return bytes;
+    }
+
+    /** Appends the entries encoded in {@code buffer[offset, offset + length)}. */
+    void readFrom(ByteBuffer buffer, int offset, int length) {
+        int[] cursor = {offset};
+        int end = offset + length;
+        long id = 0;
+        while (cursor[0] < end) {
+            id += readVarLong(buffer, cursor);
+            int count = (int) readVarLong(buffer, cursor);
+            int position = 0;
+            for (int p = 0; p < count; p++) {
+                position += (int) readVarLong(buffer, cursor);
+                add(id, position);
+            }
+        }
+    }
+
+    long footprintBytes() {
+        return 8L * ids.length + 4L * starts.length + 4L * positions.length + 32;
+    }
+
+    private static int writeVarLong(DataOutput out, long value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            bytes++;
+        }
+        out.writeByte((int) value);
+        return bytes;
+    }
+
+    private static long readVarLong(ByteBuffer buffer, int[] cursor) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(cursor[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.dto.ChatMessage;
+import com.chat.chat.id.Snowflake;
+import com.chat.chat.mapper.MessageMapper;
+import com.chat.chat.model.Message;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.MessageRepository;
+import com.chat.chat.repository.MessageTextRow;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Full-text search over message history, backed by a {@link MessageIndex} in {@code app.search.dir}.
+ *
+ * Messages are indexed once their transaction commits ({@link MessageService#persistBatch}).
+ * Every {@code flush-ms} the buffered ones are written as a segment and the segments beyond
+ * {@code max-segments} are merged. At startup the messages above the index watermark are read
+ * back from the database, from {@code catch-up-margin-ms} earlier: ids are time-ordered, but
+ * concurrent transactions may commit slightly out of order. Searches only cover conversations
+ * the caller takes part in.
+ *
+ * With the broker relay ({@link ClusterMode}) other nodes write messages this node never sees
+ * committed: every {@code relay-catch-up-ms} the same catch-up runs over the last
+ * {@code catch-up-margin-ms} of the shared database, skipping the ids already indexed in that
+ * window, so each node's index covers all writers within about that delay.
+ */
+@Slf4j
+@Service
+public class MessageSearchService {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    private static final int CATCH_UP_BATCH = 10_000;
+
+    private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final ParticipantIndex participantIndex;
+    private final MessageIndex index;
+    private final int maxSegments;
+    private final long catchUpMarginMs;
+    private final boolean relay;
+    // Relay only: ids indexed within the catch-up margin, so that a catch-up adds each once
+    private final NavigableSet<Long> recentIds = new ConcurrentSkipListSet<>();
+
+    public MessageSearchService(MessageRepository messageRepository,
+                                ConversationRepository conversationRepository,
+                                ParticipantIndex participantIndex,
+                                MeterRegistry meterRegistry,
+                                ClusterMode clusterMode,
+                                @Value("${app.search.dir:search-index}") String dir,
+                                @Value("${app.search.max-segments:8}") int maxSegments,
+                                @Value("${app.search.catch-up-margin-ms:60000}") long catchUpMarginMs) {
+        this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.participantIndex = participantIndex;
+        this.maxSegments = maxSegments;
+        this.catchUpMarginMs = catchUpMarginMs;
+        this.relay = clusterMode.isRelay();
+        try {
+            this.index = new MessageIndex(Path.of(dir));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the search index in " + dir, e);
+        }
+        Gauge.builder("search.index.segments", index, MessageIndex::segmentCount).register(meterRegistry);
+        Gauge.builder("search.index.disk", index, MessageIndex::diskBytes).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("search.index.buffered", index, MessageIndex::bufferedBytes).baseUnit("bytes").register(meterRegistry);
+    }
+
+    /** Indexes the messages committed while the application was down (or never indexed). */
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUp() {
+        long start = System.currentTimeMillis();
+        long watermark = index.watermark();
+        long afterId = watermark == 0 ? 0 : Snowflake.firstIdAt(Snowflake.timestampOf(watermark) - catchUpMarginMs) - 1;
+        int indexed = indexAfter(afterId);
+        maintain();
+        log.info("Message search index: {} segments, {} messages caught up in {} ms",
+                index.segmentCount(), indexed, System.currentTimeMillis() - start);
+    }
+
+    /** Relay only: indexes what the other nodes committed since the previous run. */
+    @Scheduled(initialDelayString = "${app.search.relay-catch-up-ms:5000}", fixedDelayString = "${app.search.relay-catch-up-ms:5000}")
+    public void catchUpOtherNodes() {
+        if (!relay) return;
+        long afterId = Snowflake.firstIdAt(System.currentTimeMillis() - catchUpMarginMs) - 1;
+        try {
+            int indexed = indexAfter(afterId);
+            if (indexed > 0) log.debug("Message search index: {} messages from other nodes", indexed);
+        } catch (RuntimeException e) {
+            // The window is read again at the next run
+            log.warn("Message search catch-up failed: {}", e.getMessage());
+        }
+        recentIds.headSet(afterId, true).clear();
+    }
+
+    private int indexAfter(long afterId) {
+        int indexed = 0;
+        List<MessageTextRow> batch;
+        do {
+            batch = messageRepository.findTextRowsAfter(afterId, PageRequest.of(0, CATCH_UP_BATCH));
+            for (MessageTextRow row : batch) {
+                if (isNew(row.id())) {
+                    index.add(row.id(), row.conversationId(), row.text());
+                    indexed++;
+                }
+                afterId = row.id();
+            }
+        } while (batch.size() == CATCH_UP_BATCH);
+        return indexed;
+    }
+
+    /** Relay only: false for an id already indexed within the catch-up window. */
+    private boolean isNew(long messageId) {
+        if (!relay || messageId <= Snowflake.firstIdAt(System.currentTimeMillis() - catchUpMarginMs)) return true;
+        return recentIds.add(messageId);
+    }
+
+    /** Indexes committed messages; a failure is logged, never passed to the sender. */
+    public void index(List<Message> messages) {
+        try {
+            for (Message message : messages) {
+                if (!isNew(message.getId())) continue;
+                index.add(message.getId(), message.getConversation().getId(), message.getText());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not index {} messages: {}", messages.size(), e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.search.flush-ms:10000}")
+    public void maintain() {
+        try {
+            index.flush();
+            while (index.merge(maxSegments)) {
+                // until at most max-segments remain
+            }
+        } catch (IOException e) {
+            // Buffered messages stay searchable and are written at the next attempt
+            log.warn("Search index maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /** Writes what is buffered, so the next start has nothing to catch up. */
+    @PreDestroy
+    void close() {
+        try {
+            index.flush();
+        } catch (IOException e) {
+            log.warn("Could not flush the search index: {}", e.getMessage());
+        }
+    }
+
+    public boolean isParticipant(Long userId, Long conversationId) {
+        return Arrays.binarySearch(participantIndex.participants(conversationId), userId) >= 0;
+    }
+
+    /**
+     * Messages matching {@code query}, newest first, in one conversation or in all of the user's
+     * conversations; {@code beforeId} pages towards older results. The caller checks that the
+     * user belongs to {@code conversationId} ({@link #isParticipant}).
+     */
+    public List<ChatMessage> search(Long userId, String query, Long conversationId, Long beforeId, int limit) {
+        long[] scope = conversationId != null
+                ? new long[]{conversationId}
+                : conversationRepository.findIdsByParticipant(userId).stream().mapToLong(Long::longValue).distinct().toArray();
+        long[] ids = index.search(query, scope, beforeId == null ? Long.MAX_VALUE : beforeId, Math.max(1, Math.min(limit, MAX_LIMIT)));
+        if (ids.length == 0) return List.of();
+
+        Map<Long, Message> messages = new HashMap<>();
+        for (Message m : messageRepository.findAllWithDetailsByIdIn(Arrays.stream(ids).boxed().toList())) {
+            messages.put(m.getId(), m);
+        }
+        List<ChatMessage> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Message message = messages.get(id);
+            if (message != null) result.add(MessageMapper.toDto(message));
+        }
+        return result;
+    }
+}
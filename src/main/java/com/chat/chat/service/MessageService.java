@@ -8,98 +8,196 @@ import com.chat.chat.repository.ConversationRepository;
 import com.chat.chat.repository.MessageRepository;
 import com.chat.chat.repository.MediaRepository;
 import com.chat.chat.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Service
 public class MessageService {
 
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
     private final UserRepository userRepository;
     private final MediaRepository mediaRepository;
+    private final ReadStateService readStateService;
+    private final InboxService inboxService;
+    private final MessageSearchService messageSearchService;
+    private final MediaStore mediaStore;
 
     @Autowired
-    public MessageService(MessageRepository messageRepository, ConversationRepository conversationRepository, UserRepository userRepository, MediaRepository mediaRepository) {
+    public MessageService(MessageRepository messageRepository, ConversationRepository conversationRepository, UserRepository userRepository, MediaRepository mediaRepository, ReadStateService readStateService, InboxService inboxService, MessageSearchService messageSearchService, MediaStore mediaStore) {
         this.messageRepository = messageRepository;
         this.conversationRepository = conversationRepository;
         this.userRepository = userRepository;
         this.mediaRepository = mediaRepository;
+        this.readStateService = readStateService;
+        this.inboxService = inboxService;
+        this.messageSearchService = messageSearchService;
+        this.mediaStore = mediaStore;
     }
 
-    public Message saveMessage(Message message) {
-        return messageRepository.save(message);
+    @Transactional
+    public Message sendMessage(Long conversationId, Long senderId, String text, Message.Type type, String mediaUrl) {
+        return persistBatch(List.of(new MessageDraft(conversationId, senderId, text, type, mediaUrl))).get(0);
     }
 
+    /**
+     * Persists a batch of drafts in a single transaction and returns the saved messages in the
+     * same order. Side effects are coalesced per conversation: one lastMessageTime update,
+     * one inbox update and one read-state update per run of messages from the same sender.
+     * The messages are added to the search index once the transaction commits.
+     */
     @Transactional
-    public Message sendMessage(Long conversationId, Long senderId, String text, Message.Type type, String mediaUrl) {
-        Conversation conv = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new RuntimeException("Conversation not found"));
-        User sender = userRepository.findById(senderId)
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        Media media = null;
-        if (mediaUrl != null) {
-            media = mediaRepository.findByUrl(mediaUrl).orElse(null);
-            if (media == null) {
-                String fileType = type == null ? "document" : switch (type) {
-                    case IMAGE -> "image";
-                    case VIDEO -> "video";
-                    case AUDIO -> "audio";
-                    case PDF -> "pdf";
-                    default -> "document";
-                };
-
-                // Try to extract storedName from the URL path
-                String storedName = null;
-                int lastSlash = mediaUrl.lastIndexOf('/');
-                if (lastSlash >= 0 && lastSlash < mediaUrl.length() - 1) {
-                    storedName = mediaUrl.substring(lastSlash + 1);
-                }
+    public List<Message> persistBatch(List<MessageDraft> drafts) {
+        Map<Long, Conversation> conversations = new HashMap<>();
+        for (Conversation c : conversationRepository.findAllById(drafts.stream().map(MessageDraft::conversationId).distinct().toList())) {
+            conversations.put(c.getId(), c);
+        }
+        Map<Long, User> senders = new HashMap<>();
+        for (User u : userRepository.findAllById(drafts.stream().map(MessageDraft::senderId).filter(Objects::nonNull).distinct().toList())) {
+            senders.put(u.getId(), u);
+        }
+        Map<String, Media> mediaByUrl = new HashMap<>();
+
+        List<Message> messages = new ArrayList<>(drafts.size());
+        for (MessageDraft draft : drafts) {
+            Conversation conv = conversations.get(draft.conversationId());
+            if (conv == null) throw new RuntimeException("Conversation not found");
+            User sender = draft.senderId() == null ? null : senders.get(draft.senderId());
+            if (sender == null) throw new RuntimeException("User not found");
 
-                media = Media.builder()
-                        .url(mediaUrl)
-                        .fileType(fileType)
-                        .storedName(storedName)
-                        .uploadTime(LocalDateTime.now())
-                        .user(sender)
-                        .build();
-                media = mediaRepository.save(media);
+            Media media = null;
+            if (draft.mediaUrl() != null) {
+                media = mediaByUrl.computeIfAbsent(draft.mediaUrl(), url -> resolveMedia(url, draft.type(), sender));
             }
+
+            messages.add(Message.builder()
+                    .text(draft.text())
+                    .sender(sender)
+                    .conversation(conv)
+                    .timestamp(Instant.now())
+                    .status(Message.Status.SENT)
+                    .type(draft.type() == null ? Message.Type.TEXT : draft.type())
+                    .media(media)
+                    .build());
         }
+        messages = messageRepository.saveAll(messages);
 
-        Message message = Message.builder()
-                .text(text)
-                .sender(sender)
-                .conversation(conv)
-                .timestamp(Instant.now())
-                .status(Message.Status.SENT)
-                .type(type == null ? Message.Type.TEXT : type)
-                .media(media)
-                .build();
-        message = saveMessage(message);
+        // Each message holds a reference on its media file (see MediaStore)
+        Map<Long, Integer> mediaReferences = new HashMap<>();
+        for (Message m : messages) {
+            if (m.getMedia() != null) mediaReferences.merge(m.getMedia().getId(), 1, Integer::sum);
+        }
+        if (!mediaReferences.isEmpty()) mediaStore.retain(mediaReferences);
 
-        conv.setLastMessageTime(message.getTimestamp());
-        conversationRepository.save(conv);
+        // Coalesced side effects, in send order within each conversation
+        Map<Long, List<Message>> byConversation = new LinkedHashMap<>();
+        for (Message m : messages) {
+            byConversation.computeIfAbsent(m.getConversation().getId(), k -> new ArrayList<>()).add(m);
+        }
+        for (List<Message> sent : byConversation.values()) {
+            Message last = sent.get(sent.size() - 1);
+            Conversation conv = last.getConversation();
+            conv.setLastMessageTime(last.getTimestamp()); // flushed as one UPDATE per conversation
 
-        return message;
+            int run = 0;
+            for (int i = 0; i < sent.size(); i++) {
+                run++;
+                Message m = sent.get(i);
+                boolean endOfRun = i == sent.size() - 1 || !sent.get(i + 1).getSender().getId().equals(m.getSender().getId());
+                if (endOfRun) {
+                    readStateService.onMessages(conv.getId(), m.getSender().getId(), m.getId(), run);
+                    run = 0;
+                }
+            }
+            inboxService.onMessage(last);
+        }
+
+        List<Message> saved = messages;
+        afterCommit(() -> messageSearchService.index(saved));
+        return messages;
     }
 
-    public List<Message> getMessages(Long conversationId) {
-        return messageRepository.findByConversationIdOrderByTimestampAsc(conversationId);
+    /** Runs the action once the surrounding transaction commits, or at once without one. */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
-    @Transactional
-    public void markRead(Long messageId) {
-        Message m = messageRepository.findById(messageId)
-                .orElseThrow(() -> new IllegalArgumentException("Message not found"));
-        m.setStatus(Message.Status.READ);
-        messageRepository.save(m);
+    private Media resolveMedia(String mediaUrl, Message.Type type, User sender) {
+        Media media = mediaRepository.findByUrl(mediaUrl).orElse(null);
+        if (media != null) return media;
+
+        String fileType = type == null ? "document" : switch (type) {
+            case IMAGE -> "image";
+            case VIDEO -> "video";
+            case AUDIO -> "audio";
+            case PDF -> "pdf";
+            default -> "document";
+        };
+
+        // Try to extract storedName from the URL path
+        String storedName = null;
+        int lastSlash = mediaUrl.lastIndexOf('/');
+        if (lastSlash >= 0 && lastSlash < mediaUrl.length() - 1) {
+            storedName = mediaUrl.substring(lastSlash + 1);
+        }
+
+        media = Media.builder()
+                .url(mediaUrl)
+                .fileType(fileType)
+                .storedName(storedName)
+                .uploadTime(LocalDateTime.now())
+                .user(sender)
+                .build();
+        return mediaRepository.save(media);
+    }
+
+    /**
+     * Returns one page of a conversation's history, oldest first.
+     * Without a cursor the newest page is returned; {@code beforeId} pages towards older
+     * messages and {@code afterId} towards newer ones. The cost only depends on {@code limit}.
+     */
+    public List<Message> getMessages(Long conversationId, Long beforeId, Long afterId, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        PageRequest page = PageRequest.of(0, size);
+        if (afterId != null) {
+            return messageRepository.findPageAfter(conversationId, afterId, page);
+        }
+        List<Message> newestFirst = beforeId != null
+                ? messageRepository.findPageBefore(conversationId, beforeId, page)
+                : messageRepository.findLatestPage(conversationId, page);
+        List<Message> result = new ArrayList<>(newestFirst);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** A read receipt for a message covers every earlier message of the conversation. */
+    public void markRead(Long conversationId, Long readerId, Long messageId) {
+        readStateService.markRead(readerId, conversationId, messageId);
     }
 }
@@ -0,0 +1,138 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Message;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for persisting inbound chat messages.
+ *
+ * In the default mode every message is committed in its own transaction on the caller's thread.
+ * With {@code app.messages.write-behind.enabled=true} messages are queued and a single writer
+ * thread commits them in micro-batches (up to {@code batch-size} messages, waiting at most
+ * {@code max-wait-ms} for a batch to fill), so the database pays one commit per batch instead
+ * of one per message. In both modes the returned future only completes once the message is
+ * committed, so callers acknowledge and fan out after the commit.
+ */
+@Slf4j
+@Service
+public class MessageWriteBehind {
+
+    private record Pending(MessageDraft draft, CompletableFuture<Message> result) {}
+
+    private final MessageService messageService;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending> queue;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public MessageWriteBehind(MessageService messageService,
+                              @Value("${app.messages.write-behind.enabled:false}") boolean enabled,
+                              @Value("${app.messages.write-behind.batch-size:256}") int batchSize,
+                              @Value("${app.messages.write-behind.max-wait-ms:5}") long maxWaitMs,
+                              @Value("${app.messages.write-behind.queue-capacity:10000}") int queueCapacity) {
+        this.messageService = messageService;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) return;
+        running = true;
+        writer = new Thread(this::run, "message-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Message write-behind enabled (batch size {}, max wait {} ms)", batchSize, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writer == null) return;
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10)); // the writer drains the queue before exiting
+    }
+
+    public CompletableFuture<Message> submit(MessageDraft draft) {
+        if (!enabled) {
+            try {
+                return CompletableFuture.completedFuture(messageService.sendMessage(
+                        draft.conversationId(), draft.senderId(), draft.text(), draft.type(), draft.mediaUrl()));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Pending pending = new Pending(draft, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Message queue is full"));
+        }
+        return pending.result();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("Message writer failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        try {
+            List<Message> saved = messageService.persistBatch(batch.stream().map(Pending::draft).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(saved.get(i));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result().completeExceptionally(e);
+                return;
+            }
+            // One bad message must not fail its neighbours: retry them one by one
+            log.warn("Batch of {} messages failed, retrying individually: {}", batch.size(), e.getMessage());
+            for (Pending pending : batch) {
+                try {
+                    pending.result().complete(messageService.persistBatch(List.of(pending.draft())).get(0));
+                } catch (RuntimeException single) {
+                    pending.result().completeExceptionally(single);
+                }
+            }
+        }
+    }
+}
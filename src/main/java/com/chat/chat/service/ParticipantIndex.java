@@ -0,0 +1,93 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.repository.ConversationRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * conversationId -> sorted participant ids, as plain {@code long[]}, for the real-time fan-out.
+ *
+ * Loaded once per conversation from the join table and replaced when {@link ConversationService}
+ * sets the members (once its transaction commits), so sending a message costs no participant
+ * read. The memory cap is a number of ids ({@code max-ids}) across all cached conversations.
+ *
+ * With the broker relay ({@link ClusterMode}) nothing is cached: a lookup cached here before
+ * another node committed the conversation would never be corrected.
+ */
+@Service
+public class ParticipantIndex {
+
+    private static final long[] NONE = new long[0];
+
+    private final ConversationRepository conversationRepository;
+    private final boolean enabled;
+    private final Cache<Long, long[]> participants;
+
+    public ParticipantIndex(ConversationRepository conversationRepository,
+                            MeterRegistry meterRegistry,
+                            ClusterMode clusterMode,
+                            @Value("${app.conversations.participant-index.max-ids:2000000}") long maxIds) {
+        this.conversationRepository = conversationRepository;
+        this.enabled = clusterMode.nodeLocalCaches();
+        this.participants = Caffeine.newBuilder()
+                .maximumWeight(maxIds)
+                .weigher((Long conversationId, long[] ids) -> Math.max(1, ids.length))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, participants, "conversations.participants");
+    }
+
+    /** Participant ids of the conversation, ascending. The array is shared: do not modify it. */
+    public long[] participants(Long conversationId) {
+        return enabled ? participants.get(conversationId, this::load) : load(conversationId);
+    }
+
+    /**
+     * Records the complete membership of a conversation once the surrounding transaction commits
+     * (at once without one). A rollback drops whatever was cached for it in the meantime.
+     */
+    public void set(Long conversationId, Collection<Long> userIds) {
+        if (!enabled) return;
+        long[] ids = userIds.stream().filter(Objects::nonNull).mapToLong(Long::longValue).sorted().distinct().toArray();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            participants.put(conversationId, ids);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                participants.put(conversationId, ids);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) invalidate(conversationId);
+            }
+        });
+    }
+
+    public void invalidate(Long conversationId) {
+        participants.invalidate(conversationId);
+    }
+
+    private long[] load(Long conversationId) {
+        List<Long> ids = conversationRepository.findParticipantIds(conversationId);
+        if (ids.isEmpty()) return NONE;
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) result[i] = ids.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -1,36 +1,205 @@
 package com.chat.chat.service;
 
 import com.chat.chat.dto.PresenceEvent;
+import com.chat.chat.repository.ContactPair;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.InboxEntryRepository;
+import com.chat.chat.repository.UserRepository;
+import com.chat.chat.security.ChatPrincipal;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Online status derived from STOMP sessions.
+ *
+ * A user is online while at least one of their sessions (one per device) is connected; broker
+ * heartbeats turn dead connections into disconnects. Status changes are only recorded in
+ * memory: every {@code flush-ms} the users that actually changed since the last flush are
+ * written with one bulk update per direction (users.online and the inbox counterpart flag),
+ * so a reconnect storm costs no write at all. The diffs are then pushed, one frame per
+ * recipient, to the users sharing a conversation with them. They go to the user destination
+ * /user/queue/presence, so a client only ever receives its own contacts' changes.
+ *
+ * Per-user state (device count, online bit, status message) lives in a {@link PresenceStore}
+ * keyed by primitive id rather than in boxed maps.
+ *
+ * The session counts are per node: with the broker relay, presence is only exact when each
+ * user's sessions land on one node.
+ */
+@Slf4j
 @Service
 public class PresenceService {
 
-    private final Map<Long, PresenceEvent> presence = new ConcurrentHashMap<>();
-    private final Map<Long, Set<Long>> typingByConversation = new ConcurrentHashMap<>();
+    private static final int CHUNK = 500;
 
-    public PresenceEvent setOnline(Long userId, boolean online, String statusMessage) {
-        PresenceEvent event = PresenceEvent.builder()
-                .userId(String.valueOf(userId))
-                .online(online)
-                .statusMessage(statusMessage)
-                .build();
-        presence.put(userId, event);
-        return event;
+    private final UserRepository userRepository;
+    private final InboxEntryRepository inboxEntryRepository;
+    private final ConversationRepository conversationRepository;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final TransactionTemplate tx;
+    private final boolean resetOnStartup;
+
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>();       // sessionId -> userId
+    private final PresenceStore store = new PresenceStore();
+
+    public PresenceService(UserRepository userRepository,
+                           InboxEntryRepository inboxEntryRepository,
+                           ConversationRepository conversationRepository,
+                           SimpMessagingTemplate messagingTemplate,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.presence.reset-on-startup:true}") boolean resetOnStartup) {
+        this.userRepository = userRepository;
+        this.inboxEntryRepository = inboxEntryRepository;
+        this.conversationRepository = conversationRepository;
+        this.messagingTemplate = messagingTemplate;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.resetOnStartup = resetOnStartup;
+        Gauge.builder("presence.users.online", store, PresenceStore::onlineCount).register(meterRegistry);
+        Gauge.builder("presence.sessions", sessions, Map::size).register(meterRegistry);
+        Gauge.builder("presence.store.bytes", store, PresenceStore::footprintBytes).baseUnit("bytes").register(meterRegistry);
+    }
+
+    /** Flags left over by a previous run are stale: nobody is connected yet. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resetStaleFlags() {
+        if (!resetOnStartup) return;
+        tx.executeWithoutResult(status -> {
+            int users = userRepository.resetOnline();
+            inboxEntryRepository.resetCounterpartOnline();
+            log.info("Presence reset: {} users marked offline", users);
+        });
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        String sessionId = (String) event.getMessage().getHeaders().get("simpSessionId");
+        ChatPrincipal principal = ChatPrincipal.of(event.getUser());
+        if (sessionId == null || principal == null) return;
+        // Id from the token; the status message is read when the first device connects, statusChanged keeps it current
+        if (!store.isOnline(principal.id())) {
+            userRepository.findStatusMessageById(principal.id()).ifPresent(status -> store.setStatus(principal.id(), status));
+        }
+        connected(sessionId, principal.id());
+    }
+
+    @EventListener
+    public void onDisconnected(SessionDisconnectEvent event) {
+        disconnected(event.getSessionId());
+    }
+
+    public void connected(String sessionId, Long userId) {
+        if (sessions.putIfAbsent(sessionId, userId) != null) return;
+        store.connect(userId);
+    }
+
+    /** Idempotent: Spring may publish more than one disconnect event per session. */
+    public void disconnected(String sessionId) {
+        if (sessionId == null) return;
+        Long userId = sessions.remove(sessionId);
+        if (userId == null) return;
+        store.disconnect(userId);
+    }
+
+    public boolean isOnline(Long userId) {
+        return userId != null && store.isOnline(userId);
+    }
+
+    /** The ids among {@code userIds} that are connected, in one pass over the store. */
+    public long[] onlineAmong(long[] userIds) {
+        return store.onlineAmong(userIds);
+    }
+
+    /** Keeps the status message sent along presence changes in sync with the profile. */
+    public void statusChanged(Long userId, String statusMessage) {
+        store.setStatus(userId, statusMessage);
     }
 
     public PresenceEvent getPresence(Long userId) {
-        return presence.get(userId);
+        return event(userId, isOnline(userId));
+    }
+
+    /** Persists and publishes the users whose status changed since the previous flush. */
+    @Scheduled(fixedDelayString = "${app.presence.flush-ms:1000}")
+    public void flush() {
+        // Users back to the state already written (e.g. a reconnect) are not returned
+        long[] changed = store.drainChanged();
+        if (changed.length == 0) return;
+        List<Long> wentOnline = new ArrayList<>();
+        List<Long> wentOffline = new ArrayList<>();
+        for (long userId : changed) {
+            (store.isOnline(userId) ? wentOnline : wentOffline).add(userId);
+        }
+        if (wentOnline.isEmpty() && wentOffline.isEmpty()) return;
+
+        try {
+            tx.executeWithoutResult(status -> {
+                persist(wentOnline, true);
+                persist(wentOffline, false);
+            });
+        } catch (RuntimeException e) {
+            // Retried at the next flush
+            log.warn("Presence flush failed: {}", e.getMessage());
+            store.flushed(toArray(wentOnline), true, false);
+            store.flushed(toArray(wentOffline), false, false);
+            return;
+        }
+        store.flushed(toArray(wentOnline), true, true);
+        store.flushed(toArray(wentOffline), false, true);
+        publish(wentOnline, wentOffline);
+    }
+
+    private void persist(List<Long> userIds, boolean online) {
+        for (int from = 0; from < userIds.size(); from += CHUNK) {
+            List<Long> chunk = userIds.subList(from, Math.min(userIds.size(), from + CHUNK));
+            userRepository.updateOnline(chunk, online);
+            inboxEntryRepository.updateCounterpartOnline(chunk, online);
+        }
+    }
+
+    /** One frame per recipient with every change among their contacts. */
+    private void publish(List<Long> wentOnline, List<Long> wentOffline) {
+        Map<Long, PresenceEvent> events = new HashMap<>();
+        wentOnline.forEach(id -> events.put(id, event(id, true)));
+        wentOffline.forEach(id -> events.put(id, event(id, false)));
+
+        List<Long> changed = new ArrayList<>(events.keySet());
+        Map<String, List<PresenceEvent>> byRecipient = new HashMap<>();
+        for (int from = 0; from < changed.size(); from += CHUNK) {
+            List<Long> chunk = changed.subList(from, Math.min(changed.size(), from + CHUNK));
+            for (ContactPair pair : conversationRepository.findContactPairs(chunk)) {
+                byRecipient.computeIfAbsent(pair.contactEmail(), k -> new ArrayList<>()).add(events.get(pair.userId()));
+            }
+        }
+        byRecipient.forEach((recipient, diff) -> messagingTemplate.convertAndSendToUser(recipient, "/queue/presence", diff));
+    }
+
+    private PresenceEvent event(Long userId, boolean online) {
+        return PresenceEvent.builder()
+                .userId(String.valueOf(userId))
+                .online(online)
+                .statusMessage(userId == null ? null : store.status(userId))
+                .build();
     }
 
-    public Set<Long> setTyping(Long conversationId, Long userId, boolean typing) {
-        typingByConversation.computeIfAbsent(conversationId, k -> ConcurrentHashMap.newKeySet());
-        Set<Long> set = typingByConversation.get(conversationId);
-        if (typing) set.add(userId); else set.remove(userId);
-        return set;
+    private static long[] toArray(List<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).toArray();
     }
 }
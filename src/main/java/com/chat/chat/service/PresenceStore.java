@@ -0,0 +1,354 @@
+package com.chat.chat.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Presence state of every user seen since startup, keyed by primitive user id.
+ *
+ * Open addressing with linear probing over parallel arrays: per user 8 bytes of key, 4 of
+ * device count, 4 of status index and 3 bits (online, last flushed value, flush known), about
+ * 33 bytes at the maximum load factor of 0.5 instead of the 150+ of a boxed map entry holding
+ * an event object. Status messages are interned: each distinct text in use is stored once,
+ * and reference counts release the texts nobody has anymore, so the pool never outgrows the
+ * statuses currently set.
+ * Entries are never removed (user ids are stable and bounded by the user count).
+ *
+ * Writes are serialized; {@link #isOnline} and {@link #onlineAmong} use optimistic reads and
+ * do not block writers.
+ */
+public class PresenceStore {
+
+    private static final int NO_STATUS = -1;
+
+    private final StampedLock lock = new StampedLock();
+
+    private long[] keys;          // 0 = free slot
+    private int[] devices;
+    private int[] statuses;       // index into statusPool, NO_STATUS when unset
+    private long[] onlineBits;
+    private long[] flushedBits;   // last value written to the database
+    private long[] flushKnownBits; // whether flushedBits is meaningful
+    private long[] dirtyBits;
+    private long[] dirtyIds = new long[64];
+    private int dirtyCount;
+    private int size;
+    private int onlineCount;
+
+    private final Map<String, Integer> statusIndex = new HashMap<>();
+    private String[] statusPool = new String[16];
+    private int[] statusRefs = new int[16];
+    private int statusCount;      // pool slots ever used; released ones are in freeStatuses
+    private int[] freeStatuses = new int[16];
+    private int freeCount;
+
+    public PresenceStore() {
+        this(1024);
+    }
+
+    public PresenceStore(int expectedUsers) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedUsers * 2 - 1)) << 1);
+    }
+
+    /** Registers a connected device; returns the user's device count afterwards. */
+    public int connect(long userId) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = insert(userId); // may resize: read the arrays afterwards
+            int count = ++devices[slot];
+            if (count == 1) {
+                setBit(onlineBits, slot, true);
+                onlineCount++;
+                markDirty(slot, userId);
+            }
+            return count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Removes a connected device; returns the remaining device count (0 = went offline). */
+    public int disconnect(long userId) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(keys, userId);
+            if (slot < 0 || devices[slot] == 0) return 0;
+            int count = --devices[slot];
+            if (count == 0) {
+                setBit(onlineBits, slot, false);
+                onlineCount--;
+                markDirty(slot, userId);
+            }
+            return count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean isOnline(long userId) {
+        long stamp = lock.tryOptimisticRead();
+        boolean online = readOnline(userId);
+        if (lock.validate(stamp)) return online;
+        stamp = lock.readLock();
+        try {
+            return readOnline(userId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** The ids among {@code userIds} that are online, in the given order. */
+    public long[] onlineAmong(long[] userIds) {
+        long stamp = lock.tryOptimisticRead();
+        long[] online = readOnlineAmong(userIds);
+        if (lock.validate(stamp)) return online;
+        stamp = lock.readLock();
+        try {
+            return readOnlineAmong(userIds);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void setStatus(long userId, String statusMessage) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = insert(userId); // may resize: read the arrays afterwards
+            int previous = statuses[slot];
+            statuses[slot] = statusMessage == null ? NO_STATUS : intern(statusMessage);
+            if (previous != NO_STATUS) release(previous);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public String status(long userId) {
+        long stamp = lock.readLock();
+        try {
+            int slot = find(keys, userId);
+            return slot < 0 || statuses[slot] == NO_STATUS ? null : statusPool[statuses[slot]];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Takes the users whose online state changed since the previous call and whose state
+     * differs from the last flushed one (a disconnect followed by a reconnect cancels out).
+     */
+    public long[] drainChanged() {
+        long stamp = lock.writeLock();
+        try {
+            long[] changed = new long[dirtyCount];
+            int n = 0;
+            for (int i = 0; i < dirtyCount; i++) {
+                int slot = find(keys, dirtyIds[i]);
+                setBit(dirtyBits, slot, false);
+                boolean online = getBit(onlineBits, slot);
+                if (getBit(flushKnownBits, slot) && getBit(flushedBits, slot) == online) continue;
+                changed[n++] = dirtyIds[i];
+            }
+            dirtyCount = 0;
+            return n == changed.length ? changed : Arrays.copyOf(changed, n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Records what has been written; users whose flush failed go back to the changed set. */
+    public void flushed(long[] userIds, boolean online, boolean succeeded) {
+        long stamp = lock.writeLock();
+        try {
+            for (long userId : userIds) {
+                int slot = find(keys, userId);
+                if (slot < 0) continue;
+                if (succeeded) {
+                    setBit(flushKnownBits, slot, true);
+                    setBit(flushedBits, slot, online);
+                } else {
+                    markDirty(slot, userId);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int onlineCount() {
+        long stamp = lock.readLock();
+        try {
+            return onlineCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Distinct status messages held by the pool (for monitoring and tests). */
+    public int distinctStatuses() {
+        long stamp = lock.readLock();
+        try {
+            return statusIndex.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Approximate heap used by the table and the status pool, in bytes. */
+    public long footprintBytes() {
+        long stamp = lock.readLock();
+        try {
+            long bytes = 8L * keys.length + 4L * devices.length + 4L * statuses.length
+                    + 8L * (onlineBits.length + flushedBits.length + flushKnownBits.length + dirtyBits.length)
+                    + 8L * dirtyIds.length + 16L * statusPool.length;
+            for (int i = 0; i < statusCount; i++) {
+                if (statusPool[i] != null) bytes += 40 + 2L * statusPool[i].length();
+            }
+            return bytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Readers may see a table being resized: indexes are bounds-checked and the result is
+    // discarded by the caller when the optimistic stamp does not validate.
+
+    private boolean readOnline(long userId) {
+        long[] k = keys;
+        long[] bits = onlineBits;
+        int slot = find(k, userId);
+        return slot >= 0 && (slot >>> 6) < bits.length && getBit(bits, slot);
+    }
+
+    private long[] readOnlineAmong(long[] userIds) {
+        long[] k = keys;
+        long[] bits = onlineBits;
+        long[] online = new long[userIds.length];
+        int n = 0;
+        for (long userId : userIds) {
+            int slot = find(k, userId);
+            if (slot >= 0 && (slot >>> 6) < bits.length && getBit(bits, slot)) online[n++] = userId;
+        }
+        return n == online.length ? online : Arrays.copyOf(online, n);
+    }
+
+    private static int find(long[] k, long userId) {
+        if (userId == 0) return -1;
+        int mask = k.length - 1;
+        for (int slot = hash(userId) & mask, probes = 0; probes < k.length; slot = (slot + 1) & mask, probes++) {
+            long key = k[slot];
+            if (key == userId) return slot;
+            if (key == 0) return -1;
+        }
+        return -1;
+    }
+
+    private int insert(long userId) {
+        if (userId == 0) throw new IllegalArgumentException("User id 0 is reserved");
+        int slot = find(keys, userId);
+        if (slot >= 0) return slot;
+        if ((size + 1) * 2 > keys.length) resize();
+        int mask = keys.length - 1;
+        slot = hash(userId) & mask;
+        while (keys[slot] != 0) slot = (slot + 1) & mask;
+        keys[slot] = userId;
+        statuses[slot] = NO_STATUS;
+        size++;
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldDevices = devices;
+        int[] oldStatuses = statuses;
+        long[] oldOnline = onlineBits, oldFlushed = flushedBits, oldKnown = flushKnownBits, oldDirty = dirtyBits;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            devices[slot] = oldDevices[i];
+            statuses[slot] = oldStatuses[i];
+            setBit(onlineBits, slot, getBit(oldOnline, i));
+            setBit(flushedBits, slot, getBit(oldFlushed, i));
+            setBit(flushKnownBits, slot, getBit(oldKnown, i));
+            setBit(dirtyBits, slot, getBit(oldDirty, i));
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        devices = new int[capacity];
+        statuses = new int[capacity];
+        int words = Math.max(1, capacity >>> 6);
+        onlineBits = new long[words];
+        flushedBits = new long[words];
+        flushKnownBits = new long[words];
+        dirtyBits = new long[words];
+    }
+
+    private void markDirty(int slot, long userId) {
+        if (getBit(dirtyBits, slot)) return;
+        setBit(dirtyBits, slot, true);
+        if (dirtyCount == dirtyIds.length) dirtyIds = Arrays.copyOf(dirtyIds, dirtyCount * 2);
+        dirtyIds[dirtyCount++] = userId;
+    }
+
+    /** Index of the pooled text, taking one reference to it. */
+    private int intern(String statusMessage) {
+        Integer pooled = statusIndex.get(statusMessage);
+        if (pooled != null) {
+            statusRefs[pooled]++;
+            return pooled;
+        }
+        int index;
+        if (freeCount > 0) {
+            index = freeStatuses[--freeCount];
+        } else {
+            if (statusCount == statusPool.length) {
+                statusPool = Arrays.copyOf(statusPool, statusCount * 2);
+                statusRefs = Arrays.copyOf(statusRefs, statusCount * 2);
+            }
+            index = statusCount++;
+        }
+        statusPool[index] = statusMessage;
+        statusRefs[index] = 1;
+        statusIndex.put(statusMessage, index);
+        return index;
+    }
+
+    /** Drops one reference; the last one frees the slot for the next new text. */
+    private void release(int index) {
+        if (--statusRefs[index] > 0) return;
+        statusIndex.remove(statusPool[index]);
+        statusPool[index] = null;
+        if (freeCount == freeStatuses.length) freeStatuses = Arrays.copyOf(freeStatuses, freeCount * 2);
+        freeStatuses[freeCount++] = index;
+    }
+
+    private static int hash(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static boolean getBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index, boolean value) {
+        if (value) bits[index >>> 6] |= 1L << index;
+        else bits[index >>> 6] &= ~(1L << index);
+    }
+}
@@ -0,0 +1,136 @@
+package com.chat.chat.service;
+
+import com.chat.chat.dto.ChatMessage;
+import com.chat.chat.model.ReadState;
+import com.chat.chat.repository.MessageRepository;
+import com.chat.chat.repository.ReadStateRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-participant read watermarks and unread counters.
+ *
+ * Sends bump the counters of every other participant with one bulk update, and a read
+ * receipt moves the reader's watermark and recounts what is left above it (usually nothing)
+ * with another one, so the unread badge of a conversation is a single row read.
+ */
+@Slf4j
+@Service
+public class ReadStateService {
+
+    private final ReadStateRepository readStateRepository;
+    private final MessageRepository messageRepository;
+    private final TransactionTemplate backfillTx;
+
+    public ReadStateService(ReadStateRepository readStateRepository, MessageRepository messageRepository,
+                            PlatformTransactionManager transactionManager) {
+        this.readStateRepository = readStateRepository;
+        this.messageRepository = messageRepository;
+        this.backfillTx = new TransactionTemplate(transactionManager);
+        this.backfillTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /** Creates the (empty) read state of each new participant of a conversation. */
+    @Transactional
+    public void register(Long conversationId, Collection<Long> userIds) {
+        for (Long userId : userIds) {
+            if (userId == null || readStateRepository.existsByUserIdAndConversationId(userId, conversationId)) continue;
+            readStateRepository.save(ReadState.builder().userId(userId).conversationId(conversationId).build());
+        }
+    }
+
+    /** Applies {@code count} consecutive messages from one sender, ending with {@code lastMessageId}. */
+    @Transactional
+    public void onMessages(Long conversationId, Long senderId, Long lastMessageId, int count) {
+        readStateRepository.applyNewMessages(conversationId, senderId, lastMessageId, count);
+    }
+
+    /** Marks everything up to {@code messageId} as read for the user: one row update whatever the burst size. */
+    @Transactional
+    public void markRead(Long userId, Long conversationId, Long messageId) {
+        if (readStateRepository.advanceWatermark(userId, conversationId, messageId) > 0) return;
+        if (!readStateRepository.existsByUserIdAndConversationId(userId, conversationId)) {
+            readStateRepository.save(ReadState.builder()
+                    .userId(userId)
+                    .conversationId(conversationId)
+                    .lastReadMessageId(messageId)
+                    .unreadCount((int) messageRepository.countFromOthersAfter(conversationId, userId, messageId))
+                    .build());
+        }
+    }
+
+    /**
+     * Unread counters of the user for the given conversations. Conversations created before
+     * read states existed have no row yet; it is backfilled once from the message history.
+     */
+    public Map<Long, Integer> unreadCounts(Long userId, Collection<Long> conversationIds) {
+        Map<Long, Integer> counts = new HashMap<>();
+        if (conversationIds.isEmpty()) return counts;
+        for (ReadState state : readStateRepository.findByUserIdAndConversationIdIn(userId, conversationIds)) {
+            counts.put(state.getConversationId(), state.getUnreadCount());
+        }
+        for (Long conversationId : conversationIds) {
+            if (!counts.containsKey(conversationId)) {
+                counts.put(conversationId, backfill(userId, conversationId));
+            }
+        }
+        return counts;
+    }
+
+    private int backfill(Long userId, Long conversationId) {
+        int unread = (int) messageRepository.countFromOthers(conversationId, userId);
+        try {
+            backfillTx.executeWithoutResult(status -> readStateRepository.save(ReadState.builder()
+                    .userId(userId)
+                    .conversationId(conversationId)
+                    .unreadCount(unread)
+                    .build()));
+        } catch (DataIntegrityViolationException e) {
+            // Created concurrently by another request: the count we computed is still valid
+            log.debug("Read state for user {} in conversation {} already exists", userId, conversationId);
+        }
+        return unread;
+    }
+
+    /**
+     * Sets the status of a history page to "read" for every message that all other participants'
+     * watermarks have reached. Only the two lowest watermarks are needed, so this stays linear
+     * in participants + page size.
+     */
+    @Transactional(readOnly = true)
+    public void applyReadStatus(Long conversationId, List<ChatMessage> page) {
+        if (page.isEmpty()) return;
+        List<ReadState> states = readStateRepository.findByConversationId(conversationId);
+        if (states.size() < 2) return;
+
+        long lowest = Long.MAX_VALUE, secondLowest = Long.MAX_VALUE;
+        Long lowestUser = null;
+        for (ReadState state : states) {
+            long mark = state.getLastReadMessageId() == null ? Long.MIN_VALUE : state.getLastReadMessageId();
+            if (mark < lowest) {
+                secondLowest = lowest;
+                lowest = mark;
+                lowestUser = state.getUserId();
+            } else if (mark < secondLowest) {
+                secondLowest = mark;
+            }
+        }
+
+        for (ChatMessage message : page) {
+            long id = Long.parseLong(message.getId());
+            // The sender's own watermark does not count
+            long others = String.valueOf(lowestUser).equals(message.getSenderId()) ? secondLowest : lowest;
+            if (others >= id) message.setStatus("read");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.dto.ChatMessage;
+import com.chat.chat.mapper.MessageMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Hot tail of every recently used conversation: the newest {@code per-conversation} messages,
+ * kept as DTOs in id order. Opening a conversation is served from here without touching the
+ * database; scrolling back (any cursor) still goes to {@link MessageService#getMessages}.
+ *
+ * Tails are evicted across conversations by Caffeine (W-TinyLFU) once their estimated size
+ * exceeds {@code max-bytes}. Hits, misses, evictions and the estimated size are published as
+ * "messages.recent" metrics.
+ *
+ * Off with the broker relay ({@link ClusterMode}): messages sent through other nodes would
+ * never reach this node's tails, so every page is read from the database.
+ */
+@Service
+public class RecentMessageCache {
+
+    private final MessageService messageService;
+    private final boolean enabled;
+    private final int capacity;
+    private final Cache<Long, Tail> tails;
+
+    public RecentMessageCache(MessageService messageService,
+                              MeterRegistry meterRegistry,
+                              ClusterMode clusterMode,
+                              @Value("${app.messages.recent-cache.per-conversation:50}") int capacity,
+                              @Value("${app.messages.recent-cache.max-bytes:67108864}") long maxBytes) {
+        this.messageService = messageService;
+        this.enabled = clusterMode.nodeLocalCaches();
+        this.capacity = Math.max(1, capacity);
+        this.tails = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long conversationId, Tail tail) -> tail.weight())
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, tails, "messages.recent");
+        Gauge.builder("messages.recent.bytes", tails, c -> c.policy().eviction()
+                        .map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("Estimated memory used by cached conversation tails")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Newest {@code limit} messages of the conversation, oldest first, or empty when the cache
+     * cannot answer (the tail is shorter than {@code limit} and older messages exist).
+     * The returned DTOs are copies: callers may change their status.
+     */
+    public Optional<List<ChatMessage>> latest(Long conversationId, int limit) {
+        if (!enabled || limit > capacity) return Optional.empty();
+        Tail tail = tails.get(conversationId, this::load);
+        if (tail.messages.length < limit && !tail.complete) return Optional.empty();
+        int from = Math.max(0, tail.messages.length - limit);
+        List<ChatMessage> page = new ArrayList<>(tail.messages.length - from);
+        for (int i = from; i < tail.messages.length; i++) {
+            page.add(copy(tail.messages[i]));
+        }
+        return Optional.of(page);
+    }
+
+    /**
+     * Adds a committed message to the tail of its conversation. Conversations that are not
+     * cached are left alone: they are loaded from the database on their next read.
+     */
+    public void append(ChatMessage message) {
+        if (!enabled || message == null || message.getId() == null || message.getConversationId() == null) return;
+        Long conversationId = Long.valueOf(message.getConversationId());
+        tails.asMap().computeIfPresent(conversationId, (id, tail) -> tail.with(message, capacity));
+    }
+
+    private Tail load(Long conversationId) {
+        List<ChatMessage> newest = messageService.getMessages(conversationId, null, null, capacity).stream()
+                .map(MessageMapper::toDto)
+                .toList();
+        return new Tail(newest.toArray(ChatMessage[]::new), newest.size() < capacity);
+    }
+
+    private static ChatMessage copy(ChatMessage m) {
+        return ChatMessage.builder()
+                .id(m.getId())
+                .text(m.getText())
+                .senderId(m.getSenderId())
+                .senderName(m.getSenderName())
+                .conversationId(m.getConversationId())
+                .conversationName(m.getConversationName())
+                .timestamp(m.getTimestamp())
+                .status(m.getStatus())
+                .type(m.getType())
+                .mediaUrl(m.getMediaUrl())
+                .build();
+    }
+
+    /**
+     * Immutable, id-ordered tail of a conversation. {@code complete} means it holds the whole
+     * history, so a short tail is still a valid answer for any page size.
+     */
+    private static final class Tail {
+
+        private static final int ENTRY_OVERHEAD = 160;
+        private static final int TAIL_OVERHEAD = 64;
+
+        final ChatMessage[] messages;
+        final boolean complete;
+        private final int weight;
+
+        Tail(ChatMessage[] messages, boolean complete) {
+            this.messages = messages;
+            this.complete = complete;
+            int w = TAIL_OVERHEAD;
+            for (ChatMessage m : messages) w += weigh(m);
+            this.weight = w;
+        }
+
+        int weight() {
+            return weight;
+        }
+
+        /** Copy with {@code message} inserted at its id position, trimmed to {@code capacity}. */
+        Tail with(ChatMessage message, int capacity) {
+            long id = Long.parseLong(message.getId());
+            // Messages from concurrent senders may be committed slightly out of order
+            int pos = messages.length;
+            while (pos > 0) {
+                long previous = Long.parseLong(messages[pos - 1].getId());
+                if (previous == id) return this;
+                if (previous < id) break;
+                pos--;
+            }
+            if (pos == 0 && messages.length >= capacity) return this; // older than the whole tail
+
+            ChatMessage[] next = new ChatMessage[messages.length + 1];
+            System.arraycopy(messages, 0, next, 0, pos);
+            next[pos] = message;
+            System.arraycopy(messages, pos, next, pos + 1, messages.length - pos);
+            if (next.length > capacity) {
+                next = Arrays.copyOfRange(next, next.length - capacity, next.length);
+                return new Tail(next, false);
+            }
+            return new Tail(next, complete);
+        }
+
+        private static int weigh(ChatMessage m) {
+            return ENTRY_OVERHEAD + 2 * (length(m.getText()) + length(m.getSenderName())
+                    + length(m.getConversationName()) + length(m.getMediaUrl()));
+        }
+
+        private static int length(String s) {
+            return s == null ? 0 : s.length();
+        }
+    }
+}
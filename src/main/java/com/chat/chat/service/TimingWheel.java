@@ -0,0 +1,51 @@
+package com.chat.chat.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: O(1) scheduling, and each tick only looks at one slot. Timeouts are
+ * not cancelled; callers ignore an expiry that no longer matches their state.
+ * {@link #advance} must be called by one thread at a time.
+ */
+public class TimingWheel<T> {
+
+    private final long tickMs;
+    private final Queue<Timeout<T>>[] slots;
+    private volatile long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int slots, long startMs) {
+        if (tickMs <= 0 || slots <= 0) throw new IllegalArgumentException("tickMs and slots must be > 0");
+        this.tickMs = tickMs;
+        this.slots = new Queue[slots];
+        for (int i = 0; i < slots; i++) this.slots[i] = new ConcurrentLinkedQueue<>();
+        this.currentTick = startMs / tickMs;
+    }
+
+    /** Schedules {@code item} to expire {@code delayMs} from now (rounded up to the next tick). */
+    public void schedule(T item, long delayMs) {
+        long deadline = currentTick + Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        slots[(int) (deadline % slots.length)].add(new Timeout<>(item, deadline));
+    }
+
+    /** Moves the wheel up to {@code nowMs}, handing every expired item to {@code expired}. */
+    public void advance(long nowMs, Consumer<T> expired) {
+        long target = nowMs / tickMs;
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            Queue<Timeout<T>> slot = slots[(int) (tick % slots.length)];
+            // Timeouts more than one revolution away stay in the slot
+            for (int n = slot.size(); n > 0; n--) {
+                Timeout<T> timeout = slot.poll();
+                if (timeout == null) break;
+                if (timeout.deadline <= tick) expired.accept(timeout.item);
+                else slot.add(timeout);
+            }
+        }
+    }
+
+    private record Timeout<T>(T item, long deadline) {
+    }
+}
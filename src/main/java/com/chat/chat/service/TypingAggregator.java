@@ -0,0 +1,179 @@
+package com.chat.chat.service;
+
+import com.chat.chat.dto.TypingState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Who is typing in each conversation.
+ *
+ * Keystroke events only update the state; changes are published on
+ * /topic/conversations/{id}/typing at most once per {@code broadcast-interval-ms} per
+ * conversation, as the full set of typing users. A user expires {@code ttl-ms} after the last
+ * "typing" event (a client that disconnects mid-typing included) through a hashed timing wheel,
+ * and a conversation nobody types in is removed once its empty set has been published.
+ *
+ * The state is per node: with the broker relay each node only sees the typing events of the
+ * sessions connected to it. Every frame therefore carries its node id ({@code app.node-id})
+ * and clients show the union of the latest set of each node.
+ */
+@Service
+public class TypingAggregator {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final String node;
+    private final long ttlMs;
+    private final long intervalMs;
+    private final LongSupplier clock;
+    private final TimingWheel<Expiry> wheel;
+    private final Map<Long, Conversation> conversations = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final Counter received;
+    private final Counter broadcasts;
+
+    @Autowired
+    public TypingAggregator(SimpMessagingTemplate messagingTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.typing.ttl-ms:5000}") long ttlMs,
+                            @Value("${app.typing.broadcast-interval-ms:300}") long intervalMs,
+                            @Value("${app.typing.tick-ms:100}") long tickMs,
+                            @Value("${app.node-id:0}") int nodeId) {
+        this(messagingTemplate, meterRegistry, ttlMs, intervalMs, tickMs, nodeId, System::currentTimeMillis);
+    }
+
+    TypingAggregator(SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry,
+                     long ttlMs, long intervalMs, long tickMs, int nodeId, LongSupplier clock) {
+        this.messagingTemplate = messagingTemplate;
+        this.node = String.valueOf(nodeId);
+        this.ttlMs = ttlMs;
+        this.intervalMs = intervalMs;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(tickMs, 512, clock.getAsLong());
+        this.received = Counter.builder("typing.events.received").register(meterRegistry);
+        this.broadcasts = Counter.builder("typing.broadcasts").register(meterRegistry);
+    }
+
+    public void update(Long conversationId, Long userId, boolean typing) {
+        received.increment();
+        long now = clock.getAsLong();
+        conversations.compute(conversationId, (id, state) -> {
+            if (state == null) {
+                if (!typing) return null; // nothing to stop
+                state = new Conversation();
+            }
+            boolean changed = typing
+                    ? state.put(userId, now + ttlMs)
+                    : state.remove(userId, 0);
+            if (changed) dirty.add(conversationId);
+            return state;
+        });
+        if (typing) wheel.schedule(new Expiry(conversationId, userId, now + ttlMs), ttlMs);
+    }
+
+    /** Expires silent typers and publishes the conversations that changed. */
+    @Scheduled(fixedDelayString = "${app.typing.tick-ms:100}")
+    public void tick() {
+        long now = clock.getAsLong();
+        wheel.advance(now, this::expire);
+        for (Long conversationId : dirty) {
+            publishIfDue(conversationId, now);
+        }
+    }
+
+    /** Number of conversations with typing state (for monitoring and tests). */
+    public int trackedConversations() {
+        return conversations.size();
+    }
+
+    private void expire(Expiry expiry) {
+        conversations.computeIfPresent(expiry.conversationId(), (id, state) -> {
+            // A later "typing" event moved the deadline: this timeout is stale
+            if (state.remove(expiry.userId(), expiry.deadline())) dirty.add(id);
+            return state;
+        });
+    }
+
+    private void publishIfDue(Long conversationId, long now) {
+        List<String> userIds = new ArrayList<>();
+        boolean[] due = {false};
+        conversations.compute(conversationId, (id, state) -> {
+            if (state == null) {
+                dirty.remove(id);
+                return null;
+            }
+            if (now - state.lastBroadcast < intervalMs) return state;
+            due[0] = true;
+            dirty.remove(id);
+            state.lastBroadcast = now;
+            for (int i = 0; i < state.size; i++) userIds.add(String.valueOf(state.userIds[i]));
+            // Once the empty set is out, the conversation needs no state anymore
+            return state.size == 0 ? null : state;
+        });
+        if (due[0]) {
+            broadcasts.increment();
+            messagingTemplate.convertAndSend("/topic/conversations/" + conversationId + "/typing",
+                    new TypingState(String.valueOf(conversationId), node, userIds));
+        }
+    }
+
+    /**
+     * Typing users of one conversation as parallel primitive arrays: a handful of entries at
+     * most, so a linear scan beats hashing and costs no boxing. Guarded by the map's compute
+     * on its conversation id.
+     */
+    private static final class Conversation {
+        long[] userIds = new long[4];
+        long[] deadlines = new long[4];
+        int size;
+        long lastBroadcast = Long.MIN_VALUE / 2;
+
+        /** Sets the deadline; true when the user was not typing yet. */
+        boolean put(long userId, long deadline) {
+            int i = indexOf(userId);
+            if (i >= 0) {
+                deadlines[i] = deadline;
+                return false;
+            }
+            if (size == userIds.length) {
+                userIds = Arrays.copyOf(userIds, size * 2);
+                deadlines = Arrays.copyOf(deadlines, size * 2);
+            }
+            userIds[size] = userId;
+            deadlines[size++] = deadline;
+            return true;
+        }
+
+        /** Removes the user, only if its deadline is still {@code deadline} unless that is 0. */
+        boolean remove(long userId, long deadline) {
+            int i = indexOf(userId);
+            if (i < 0 || (deadline != 0 && deadlines[i] != deadline)) return false;
+            size--;
+            userIds[i] = userIds[size];
+            deadlines[i] = deadlines[size];
+            return true;
+        }
+
+        private int indexOf(long userId) {
+            for (int i = 0; i < size; i++) {
+                if (userIds[i] == userId) return i;
+            }
+            return -1;
+        }
+    }
+
+    private record Expiry(long conversationId, long userId, long deadline) {
+    }
+}
@@ -0,0 +1,210 @@
+package com.chat.chat.config;
+
+import com.chat.chat.ChatApplication;
+import com.chat.chat.controller.SignalingController.SignalMessage;
+import com.chat.chat.dto.ChatMessage;
+import com.chat.chat.model.Conversation;
+import com.chat.chat.model.Message;
+import com.chat.chat.model.User;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.MessageRepository;
+import com.chat.chat.repository.UserRepository;
+import com.chat.chat.security.JwtUtil;
+import com.chat.chat.service.ContactSearchIndex;
+import com.chat.chat.service.MessageSearchService;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Two application nodes relaying to one embedded Artemis broker: what is published on node A
+ * must reach a client connected to node B.
+ */
+class BrokerRelayIntegrationTests {
+
+    @TempDir
+    static Path brokerDir;
+
+    private static EmbeddedActiveMQ broker;
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void start() throws Exception {
+        int stompPort = freePort();
+        ConfigurationImpl configuration = new ConfigurationImpl();
+        configuration.setBrokerInstance(brokerDir.toFile());
+        configuration.setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .setJMXManagementEnabled(false)
+                .addAcceptorConfiguration("stomp", "tcp://127.0.0.1:" + stompPort
+                        + "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(configuration);
+        broker.start();
+
+        nodeA = startNode("a", 1, stompPort);
+        nodeB = startNode("b", 2, stompPort);
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        if (nodeA != null) nodeA.close();
+        if (nodeB != null) nodeB.close();
+        if (broker != null) broker.stop();
+    }
+
+    @Test
+    void topicMessageSentOnNodeAReachesSubscriberOnNodeB() throws Exception {
+        BlockingQueue<SignalMessage> received = new LinkedBlockingQueue<>();
+        StompSession onB = connect(nodeB, null);
+        onB.subscribe("/topic/signals/room-1", handler(SignalMessage.class, received));
+
+        StompSession onA = connect(nodeA, null);
+        SignalMessage offer = new SignalMessage("offer", "v=0", null, "room-1", "42", "audio");
+        SignalMessage got = null;
+        // The subscription reaches the broker asynchronously: resend until it is in place
+        for (int attempt = 0; attempt < 50 && got == null; attempt++) {
+            onA.send("/app/signal", offer);
+            got = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+
+        assertNotNull(got, "node B did not receive the signal published on node A");
+        assertEquals("v=0", got.getSdp());
+        assertEquals("42", got.getSenderId());
+        onA.disconnect();
+        onB.disconnect();
+    }
+
+    @Test
+    void userDestinationIsResolvedOnTheNodeHoldingTheSession() throws Exception {
+        BlockingQueue<Map> received = new LinkedBlockingQueue<>();
+        String token = nodeB.getBean(JwtUtil.class).generateToken("marie@example.com", Map.of());
+        StompSession onB = connect(nodeB, token);
+        onB.subscribe("/user/queue/notifications", handler(Map.class, received));
+
+        SimpMessagingTemplate templateA = nodeA.getBean(SimpMessagingTemplate.class);
+        Map got = null;
+        for (int attempt = 0; attempt < 50 && got == null; attempt++) {
+            templateA.convertAndSendToUser("marie@example.com", "/queue/notifications", Map.of("hello", "marie"));
+            got = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+
+        assertNotNull(got, "user destination sent on node A was not delivered on node B");
+        assertEquals("marie", got.get("hello"));
+        onB.disconnect();
+    }
+
+    /** A user written by another node (straight to the database here) is found at once. */
+    @Test
+    void contactSearchReadsTheDatabaseWithTheRelay() {
+        User written = nodeA.getBean(UserRepository.class).save(User.builder()
+                .name("Zoé Quintard")
+                .email("zoe.quintard@example.com")
+                .password("x")
+                .roles("USER")
+                .build());
+
+        assertEquals(List.of(written.getId()), nodeA.getBean(ContactSearchIndex.class).search("quint", null, 10));
+        assertEquals(List.of(written.getId()), nodeA.getBean(ContactSearchIndex.class).search("zoe.q", null, 10));
+    }
+
+    /** A message committed by another node (straight to the database here) becomes searchable. */
+    @Test
+    void messageSearchCatchesUpWithOtherWriters() {
+        User john = nodeA.getBean(UserRepository.class).findByEmail("john@example.com").orElseThrow();
+        ConversationRepository conversations = nodeA.getBean(ConversationRepository.class);
+        Conversation conversation = conversations.findById(conversations.findIdsByParticipant(john.getId()).get(0)).orElseThrow();
+        Message written = nodeA.getBean(MessageRepository.class).save(Message.builder()
+                .conversation(conversation)
+                .sender(john)
+                .text("rendezvous quaiberthelot")
+                .timestamp(Instant.now())
+                .status(Message.Status.SENT)
+                .type(Message.Type.TEXT)
+                .build());
+
+        MessageSearchService search = nodeA.getBean(MessageSearchService.class);
+        search.catchUpOtherNodes();
+        search.catchUpOtherNodes();
+
+        assertEquals(List.of(String.valueOf(written.getId())),
+                search.search(john.getId(), "quaiberthelot", null, null, 10).stream().map(ChatMessage::getId).toList());
+    }
+
+    private static ConfigurableApplicationContext startNode(String name, int nodeId, int stompPort) {
+        return new SpringApplicationBuilder(ChatApplication.class).run(
+                "--server.port=0",
+                // Own search index and upload dirs under the temp directory
+                "--spring.profiles.active=h2",
+                "--app.node-id=" + nodeId,
+                "--app.websocket.broker=relay",
+                "--app.websocket.relay.host=127.0.0.1",
+                "--app.websocket.relay.port=" + stompPort,
+                "--spring.datasource.url=jdbc:h2:mem:node-" + name + ";DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.show-sql=false",
+                "--spring.jmx.enabled=false",
+                "--spring.devtools.restart.enabled=false");
+    }
+
+    private static StompSession connect(ConfigurableApplicationContext node, String token) throws Exception {
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connectHeaders = new StompHeaders();
+        if (token != null) connectHeaders.add("Authorization", "Bearer " + token);
+        return client.connectAsync("ws://localhost:" + port + "/ws/websocket", new WebSocketHttpHeaders(),
+                connectHeaders, new StompSessionHandlerAdapter() {}).get(10, TimeUnit.SECONDS);
+    }
+
+    private static <T> StompFrameHandler handler(Class<T> type, BlockingQueue<T> sink) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return type;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                sink.add(type.cast(payload));
+            }
+        };
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.chat.chat.config;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderedChannelExecutorTests {
+
+    @Test
+    void routesByConversationThenSession() {
+        assertEquals(12L, OrderedChannelExecutor.routingKey(frame("/app/chat.send/12", "s1", "{}")));
+        assertEquals(12L, OrderedChannelExecutor.routingKey(frame("/app/chat.typing/12", "s1", "{}")));
+        assertEquals(7L, OrderedChannelExecutor.routingKey(frame("/app/chat.read", "s1",
+                "{\"messageId\":\"3\",\"meta\":{\"conversationId\":\"99\"},\"conversationId\":\"7\"}")));
+        assertEquals("s1", OrderedChannelExecutor.routingKey(frame("/app/chat.read", "s1", "not json")));
+        assertEquals("s1", OrderedChannelExecutor.routingKey(frame("/app/signal", "s1", "{}")));
+    }
+
+    /**
+     * Many producers send numbered frames to many conversations at once. Every conversation must
+     * see its frames one at a time and, per producer, in send order.
+     */
+    @Test
+    void serialPerConversationUnderConcurrentProducers() throws Exception {
+        sendConcurrently(2_000);
+    }
+
+    @Test
+    void runsDifferentConversationsInParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        OrderedChannelExecutor executor = new OrderedChannelExecutor(pool, 1024);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        List<Boolean> met = new java.util.concurrent.CopyOnWriteArrayList<>();
+        Runnable meet = () -> {
+            bothRunning.countDown();
+            try {
+                met.add(bothRunning.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            executor.execute(task(frame("/app/chat.send/1", "s1", "{}"), meet));
+            executor.execute(task(frame("/app/chat.send/2", "s2", "{}"), meet));
+            for (int i = 0; i < 500 && met.size() < 2; i++) Thread.sleep(10);
+            assertEquals(List.of(true, true), met, "conversations never ran in parallel");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void throughputUnderConcurrentProducers() throws Exception {
+        int frames = 8 * 20_000;
+        long elapsedMs = sendConcurrently(20_000);
+        System.out.printf("%d frames over 256 conversations in %d ms%n", frames, elapsedMs);
+    }
+
+    /** Sends from 8 producers to 256 conversations, checks ordering, returns the elapsed time. */
+    private static long sendConcurrently(int framesPerProducer) throws Exception {
+        int conversations = 256;
+        int producers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        OrderedChannelExecutor executor = new OrderedChannelExecutor(pool, 1024);
+
+        AtomicIntegerArray inFlight = new AtomicIntegerArray(conversations);
+        int[][] lastSeen = new int[conversations][producers];
+        List<String> violations = new java.util.concurrent.CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(producers * framesPerProducer);
+
+        Message<?>[] frames = new Message<?>[conversations];
+        for (int c = 0; c < conversations; c++) frames[c] = frame("/app/chat.send/" + c, "s" + c, "{}");
+
+        ExecutorService senders = Executors.newFixedThreadPool(producers);
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            senders.execute(() -> {
+                for (int seq = 1; seq <= framesPerProducer; seq++) {
+                    int conversation = (seq * 31 + producer) % conversations;
+                    int expected = seq;
+                    executor.execute(task(frames[conversation], () -> {
+                        if (inFlight.incrementAndGet(conversation) != 1) violations.add("concurrent work in " + conversation);
+                        // Guarded by the per-conversation serialization under test
+                        if (lastSeen[conversation][producer] >= expected) violations.add("reordered in " + conversation);
+                        lastSeen[conversation][producer] = expected;
+                        inFlight.decrementAndGet(conversation);
+                        done.countDown();
+                    }));
+                }
+            });
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS), "frames were lost");
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        senders.shutdown();
+        pool.shutdown();
+
+        assertTrue(violations.isEmpty(), () -> violations.size() + " violations, first: " + violations.get(0));
+        // The last tasks may still be between their work and their bookkeeping
+        for (int i = 0; i < 100 && executor.pending() > 0; i++) Thread.sleep(10);
+        assertEquals(0, executor.pending());
+        return elapsedMs;
+    }
+
+    private static Message<?> frame(String destination, String sessionId, String json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static MessageHandlingRunnable task(Message<?> message, Runnable work) {
+        return new MessageHandlingRunnable() {
+            @Override
+            public Message<?> getMessage() {
+                return message;
+            }
+
+            @Override
+            public MessageHandler getMessageHandler() {
+                return m -> work.run();
+            }
+
+            @Override
+            public void run() {
+                work.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,277 @@
+package com.chat.chat.config;
+
+import com.chat.chat.config.PrioritizedSessionDecorator.Lane;
+import com.chat.chat.dto.PresenceEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PrioritizedSessionDecoratorTests {
+
+    private final ExecutorService drain = Executors.newCachedThreadPool();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger coalesced = new AtomicInteger();
+    private final List<String> closeReasons = Collections.synchronizedList(new ArrayList<>());
+
+    private final PrioritizedSessionDecorator.Listener listener = new PrioritizedSessionDecorator.Listener() {
+        public void onDropped(Lane lane) { dropped.incrementAndGet(); }
+        public void onCoalesced(Lane lane) { coalesced.incrementAndGet(); }
+        public void onClosed(String reason) { closeReasons.add(reason); }
+    };
+
+    @AfterEach
+    void shutdown() {
+        drain.shutdownNow();
+    }
+
+    @Test
+    void classifiesStompFrames() {
+        assertEquals(Lane.TYPING, lane("/topic/conversations/1/typing"));
+        assertEquals(Lane.RECEIPT, lane("/topic/conversations/1/read"));
+        assertEquals(Lane.PRESENCE, lane("/user/queue/presence"));
+        assertEquals(Lane.MESSAGE, lane("/topic/conversations/1"));
+        assertEquals(Lane.MESSAGE, PrioritizedSessionDecorator.lane(PrioritizedSessionDecorator.messageDestination("CONNECTED\nversion:1.2\n\n\u0000")));
+    }
+
+    @Test
+    void sendsByPriorityAndCoalescesTypingOnceTheClientCatchesUp() throws Exception {
+        StalledSession stalled = new StalledSession();
+        PrioritizedSessionDecorator session = new PrioritizedSessionDecorator(stalled.session, 1 << 20, 60_000, drain, listener);
+
+        session.sendMessage(frame("/topic/conversations/1", "{\"text\":\"first\"}")); // blocks the drain
+        assertTrue(stalled.started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            session.sendMessage(frame("/topic/conversations/1/typing", "{\"userId\":\"2\",\"typing\":" + (i % 2 == 0) + "}"));
+        }
+        session.sendMessage(frame("/topic/conversations/1/typing", "{\"userId\":\"3\",\"typing\":true}"));
+        session.sendMessage(frame("/topic/conversations/1/read", "{\"messageId\":\"5\"}"));
+        session.sendMessage(frame("/topic/conversations/1", "{\"text\":\"second\"}"));
+
+        stalled.release.countDown();
+        stalled.awaitSent(5);
+
+        assertEquals(List.of("/topic/conversations/1", "/topic/conversations/1", "/topic/conversations/1/read",
+                "/topic/conversations/1/typing", "/topic/conversations/1/typing"), stalled.destinations());
+        assertTrue(stalled.bodies().get(3).contains("\"userId\":\"2\",\"typing\":false"), "latest typing state of user 2 wins");
+        assertEquals(9, coalesced.get());
+        assertEquals(0, session.getBufferedBytes());
+    }
+
+    /** PresenceService sends one diff per recipient: a queued diff must not hide another user's change. */
+    @Test
+    void mergesQueuedPresenceDiffsOfDifferentUsers() throws Exception {
+        StalledSession stalled = new StalledSession();
+        PrioritizedSessionDecorator session = new PrioritizedSessionDecorator(stalled.session, 1 << 20, 60_000, drain, listener);
+        session.sendMessage(frame("/topic/conversations/1", "{}"));
+        assertTrue(stalled.started.await(5, TimeUnit.SECONDS));
+
+        session.sendMessage(presence(event("2", true), event("3", true)));
+        session.sendMessage(presence(event("4", true)));
+        session.sendMessage(presence(event("2", false)));
+        stalled.release.countDown();
+        stalled.awaitSent(2);
+
+        String frame = stalled.sent.get(1);
+        String body = frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1);
+        List<Map<String, Object>> events = new ObjectMapper().readValue(body, new TypeReference<>() {});
+        Map<Object, Object> onlineByUser = events.stream()
+                .collect(Collectors.toMap(e -> e.get("userId"), e -> e.get("online")));
+        assertEquals(Map.of("2", false, "3", true, "4", true), onlineByUser);
+        assertTrue(frame.contains("\ncontent-length:" + body.getBytes(StandardCharsets.UTF_8).length + "\n"));
+        assertEquals(2, coalesced.get());
+    }
+
+    @Test
+    void shedsLowPriorityFramesBeforeClosingTheSession() throws Exception {
+        StalledSession stalled = new StalledSession();
+        PrioritizedSessionDecorator session = new PrioritizedSessionDecorator(stalled.session, 4_096, 60_000, drain, listener);
+        session.sendMessage(frame("/topic/conversations/1", "{}"));
+        assertTrue(stalled.started.await(5, TimeUnit.SECONDS));
+
+        String filler = "x".repeat(200);
+        for (int user = 0; user < 15; user++) {
+            session.sendMessage(frame("/topic/conversations/1/typing", "{\"userId\":\"" + user + "\",\"p\":\"" + filler + "\"}"));
+        }
+        for (int i = 0; i < 10; i++) {
+            session.sendMessage(frame("/topic/conversations/1", "{\"text\":\"" + filler + "\"}"));
+        }
+        assertTrue(dropped.get() > 0, "typing frames are dropped first");
+        assertTrue(closeReasons.isEmpty());
+        assertTrue(session.getBufferedBytes() <= 4_096);
+
+        for (int i = 0; i < 20; i++) {
+            session.sendMessage(frame("/topic/conversations/1", "{\"text\":\"" + filler + "\"}"));
+        }
+        assertEquals(1, closeReasons.size(), "chat messages over budget close the session");
+        assertEquals(0, session.getBufferedBytes());
+        verify(stalled.session).close(any(CloseStatus.class));
+    }
+
+    /** Thousands of stalled clients keep at most their budget each, whatever is sent to them. */
+    @Test
+    void memoryStaysBoundedWithManyStalledClients() throws Exception {
+        int clients = 2_000;
+        int budget = 8_192;
+        List<PrioritizedSessionDecorator> sessions = new ArrayList<>(clients);
+        List<StalledSession> stalledSessions = new ArrayList<>(clients);
+        ExecutorService inline = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < clients; i++) {
+                StalledSession stalled = new StalledSession();
+                stalledSessions.add(stalled);
+                sessions.add(new PrioritizedSessionDecorator(stalled.session, budget, 60_000, inline, listener));
+            }
+            String text = "y".repeat(100);
+            for (int round = 0; round < 200; round++) {
+                for (PrioritizedSessionDecorator session : sessions) {
+                    session.sendMessage(frame("/topic/conversations/1/typing", "{\"userId\":\"" + (round % 5) + "\"}"));
+                    if (round % 4 == 0) session.sendMessage(frame("/topic/users/1/messages", "{\"text\":\"" + text + "\"}"));
+                }
+            }
+            long total = sessions.stream().mapToLong(PrioritizedSessionDecorator::getBufferedBytes).sum();
+            assertTrue(total <= (long) clients * budget, "buffered " + total + " bytes");
+            assertEquals(clients, closeReasons.size(), "every client went over budget and was closed");
+        } finally {
+            stalledSessions.forEach(s -> s.release.countDown());
+            inline.shutdownNow();
+        }
+    }
+
+    @Test
+    void detectsAWriteBlockedLongerThanTheTimeLimit() throws Exception {
+        StalledSession stalled = new StalledSession();
+        PrioritizedSessionDecorator session = new PrioritizedSessionDecorator(stalled.session, 1 << 20, 50, drain, listener);
+        session.sendMessage(frame("/topic/conversations/1", "{}"));
+        assertTrue(stalled.started.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(100);
+        assertTrue(session.isStalled(System.currentTimeMillis()));
+        session.terminate("blocked");
+        assertEquals(List.of("blocked"), closeReasons);
+        stalled.release.countDown();
+    }
+
+    @Test
+    void closesTheSessionWhenTheSendPoolIsSaturated() throws Exception {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("app.websocket.executor.session-send.threads", "1")
+                .withProperty("app.websocket.executor.session-send.queue-capacity", "1");
+        ChannelExecutors channelExecutors = new ChannelExecutors(env, new SimpleMeterRegistry());
+        Executor pool = channelExecutors.create("session-send", 1, 1, new ThreadPoolExecutor.AbortPolicy());
+        StalledSession busy = new StalledSession();
+        StalledSession queued = new StalledSession();
+        StalledSession rejected = new StalledSession();
+        try {
+            new PrioritizedSessionDecorator(busy.session, 1 << 20, 60_000, pool, listener)
+                    .sendMessage(frame("/topic/conversations/1", "{}"));
+            assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+            new PrioritizedSessionDecorator(queued.session, 1 << 20, 60_000, pool, listener)
+                    .sendMessage(frame("/topic/conversations/1", "{}"));
+
+            PrioritizedSessionDecorator session = new PrioritizedSessionDecorator(rejected.session, 1 << 20, 60_000, pool, listener);
+            session.sendMessage(frame("/topic/conversations/1", "{}"));
+
+            assertEquals(List.of("outbound executor saturated"), closeReasons);
+            assertEquals(0, session.getBufferedBytes());
+            verify(rejected.session).close(any(CloseStatus.class));
+            assertTrue(rejected.sent.isEmpty(), "nothing written on the caller thread");
+        } finally {
+            busy.release.countDown();
+            queued.release.countDown();
+            channelExecutors.destroy();
+        }
+    }
+
+    private static Lane lane(String destination) {
+        return PrioritizedSessionDecorator.lane(PrioritizedSessionDecorator.messageDestination(
+                frame(destination, "{}").getPayload()));
+    }
+
+    private static PresenceEvent event(String userId, boolean online) {
+        return PresenceEvent.builder().userId(userId).online(online).build();
+    }
+
+    /** A /user/queue/presence frame as the broker encodes the list PresenceService publishes. */
+    private static TextMessage presence(PresenceEvent... events) throws Exception {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        headers.setDestination("/user/queue/presence");
+        headers.setSubscriptionId("s1");
+        headers.setMessageId("m1");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        byte[] payload = new ObjectMapper().writeValueAsBytes(List.of(events));
+        byte[] frame = new StompEncoder().encode(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+        return new TextMessage(new String(frame, StandardCharsets.UTF_8));
+    }
+
+    private static TextMessage frame(String destination, String body) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\ncontent-type:application/json\n"
+                + "subscription:s1\nmessage-id:m1\n\n" + body + "\u0000");
+    }
+
+    /** A session whose first write blocks until released, as on a stalled TCP connection. */
+    private static class StalledSession {
+        final WebSocketSession session = mock(WebSocketSession.class);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        StalledSession() throws Exception {
+            when(session.getId()).thenReturn("s1");
+            doAnswer(invocation -> {
+                started.countDown();
+                release.await();
+                WebSocketMessage<?> message = invocation.getArgument(0);
+                sent.add((String) message.getPayload());
+                return null;
+            }).when(session).sendMessage(any());
+        }
+
+        void awaitSent(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (sent.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(count, sent.size());
+        }
+
+        List<String> destinations() {
+            return sent.stream().map(PrioritizedSessionDecorator::messageDestination).toList();
+        }
+
+        List<String> bodies() {
+            return sent.stream().map(f -> f.substring(f.indexOf("\n\n") + 2)).toList();
+        }
+    }
+}
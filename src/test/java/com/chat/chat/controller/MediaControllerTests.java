@@ -0,0 +1,136 @@
+package com.chat.chat.controller;
+
+import com.chat.chat.model.Media;
+import com.chat.chat.security.JwtUtil;
+import com.chat.chat.service.MediaStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class MediaControllerTests {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("app.upload.dir", uploadDir::toString);
+    }
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    MediaStore mediaStore;
+
+    @Autowired
+    JwtUtil jwtUtil;
+
+    @Test
+    void servesContentAddressedFilesWithValidatorsAndRanges() throws Exception {
+        byte[] bytes = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+        // Declared as audio: the stored type wins over the extension
+        Media media = mediaStore.store(new MockMultipartFile("file", "note.bin", "audio/ogg", bytes), null).media();
+        String url = media.getUrl();
+        String etag = "\"" + media.getContentHash() + "\"";
+
+        mvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(bytes))
+                .andExpect(content().contentType("audio/ogg"))
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"));
+        mvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=10-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/20"))
+                .andExpect(content().string("abcdefghij"));
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=0-1,-2"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")))
+                .andExpect(content().string(containsString("Content-Range: bytes 0-1/20\r\n\r\n01\r\n--")))
+                .andExpect(content().string(containsString("Content-Range: bytes 18-19/20\r\n\r\nij\r\n--")));
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=0-1").header(HttpHeaders.IF_RANGE, "\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(bytes));
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=20-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"));
+    }
+
+    @Test
+    void servesOlderFilesByStoredNameAndRejectsTraversal() throws Exception {
+        Files.createDirectories(uploadDir.resolve("image"));
+        Files.write(uploadDir.resolve("image").resolve("0d5c4a2e.png"), new byte[]{1, 2, 3});
+
+        mvc.perform(get("/api/media/files/image/0d5c4a2e.png"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0d5c4a2e.png\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=86400, public"));
+        mvc.perform(get("/api/media/files/image/missing.png")).andExpect(status().isNotFound());
+        mvc.perform(get("/api/media/files/..%2Fimage/0d5c4a2e.png")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void resumableUploadsNeedAUserAndStringFields() throws Exception {
+        String token = jwtUtil.generateToken("john@example.com", Map.of());
+
+        mvc.perform(post("/api/media/uploads").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"filename\":\"a.txt\",\"length\":3}"))
+                .andExpect(status().isForbidden());
+        mvc.perform(post("/api/media/uploads").contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .content("{\"filename\":42,\"length\":3}"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/api/media/uploads").contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .content("{\"filename\":\"a.txt\",\"contentType\":\"text/plain\",\"length\":3}"))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void aSecondUploaderOfTheSameBytesOnlySeesTheirOwnUpload() throws Exception {
+        byte[] bytes = "shared scan".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(multipart("/api/media/upload").file(new MockMultipartFile("file", "salaries-2026.pdf", "application/pdf", bytes))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtil.generateToken("john@example.com", Map.of())))
+                .andExpect(status().isOk());
+
+        mvc.perform(multipart("/api/media/upload").file(new MockMultipartFile("file", "scan.pdf", "application/pdf", bytes))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtil.generateToken("marie@example.com", Map.of())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.originalName").value("scan.pdf"))
+                .andExpect(jsonPath("$.duplicate").doesNotExist());
+    }
+}
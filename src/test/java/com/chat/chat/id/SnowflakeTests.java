@@ -0,0 +1,123 @@
+package com.chat.chat.id;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeTests {
+
+    @Test
+    void idsAreUniqueAcrossThreadsAndNodes() throws Exception {
+        int nodes = 4;
+        int threadsPerNode = 4;
+        int idsPerThread = 20_000;
+        List<Snowflake> generators = new ArrayList<>();
+        for (int node = 0; node < nodes; node++) {
+            generators.add(new Snowflake(node, System::currentTimeMillis));
+        }
+
+        ConcurrentHashMap.KeySetView<Long, Boolean> seen = ConcurrentHashMap.newKeySet(nodes * threadsPerNode * idsPerThread);
+        ExecutorService pool = Executors.newFixedThreadPool(nodes * threadsPerNode);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Snowflake generator : generators) {
+            for (int t = 0; t < threadsPerNode; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    long previous = Long.MIN_VALUE;
+                    for (int i = 0; i < idsPerThread; i++) {
+                        long id = generator.nextId();
+                        assertTrue(id > previous, "ids must increase within a thread");
+                        assertTrue(seen.add(id), "duplicate id " + id);
+                        previous = id;
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(nodes * threadsPerNode * idsPerThread, seen.size());
+    }
+
+    /**
+     * Indicative ids per millisecond of one node under contention. Beyond 4096 per millisecond (the
+     * sequence space) ids borrow the next milliseconds: the lead over the clock is printed too.
+     */
+    @Test
+    @Tag("benchmark")
+    void measuresThroughputOfOneNode() throws Exception {
+        int threads = 8;
+        int idsPerThread = 200_000;
+        Snowflake generator = new Snowflake(1, System::currentTimeMillis);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < idsPerThread; i++) generator.nextId();
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        pool.shutdown();
+        long lead = Snowflake.timestampOf(generator.nextId()) - System.currentTimeMillis();
+        long total = (long) threads * idsPerThread;
+        System.out.printf("snowflake: %d ids on %d threads in %d ms, %d ids/ms, %d ms ahead of the clock%n",
+                total, threads, TimeUnit.NANOSECONDS.toMillis(best), total * 1_000_000 / best, Math.max(0, lead));
+    }
+
+    @Test
+    void staysMonotonicWhenTheClockGoesBackwards() {
+        AtomicLong clock = new AtomicLong(Snowflake.EPOCH_MS + 10_000);
+        Snowflake generator = new Snowflake(7, clock::get);
+
+        long first = generator.nextId();
+        clock.addAndGet(-5_000);
+        long second = generator.nextId();
+
+        assertTrue(second > first);
+        assertEquals(7, Snowflake.nodeOf(second));
+    }
+
+    @Test
+    void borrowsTheNextMillisecondWhenTheSequenceIsExhausted() {
+        long now = Snowflake.EPOCH_MS + 42;
+        Snowflake generator = new Snowflake(1, () -> now);
+
+        long previous = generator.nextId();
+        for (int i = 0; i < 5_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+
+        assertEquals(now + 1, Snowflake.timestampOf(previous));
+    }
+}
@@ -0,0 +1,127 @@
+package com.chat.chat.security;
+
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Tokens are signed with a local key pair published as a stand-in for Google's JWK set. */
+class GoogleTokenVerifierTests {
+
+    private static final String CLIENT_ID = "client-1.apps.googleusercontent.com";
+
+    private final KeyPair signing = rsa();
+    private final KeyPair other = rsa();
+    private final AtomicInteger certFetches = new AtomicInteger();
+    private final GoogleTokenVerifier verifier = verifier(CLIENT_ID + ", client-2");
+
+    private GoogleTokenVerifier verifier(String clientIds) {
+        return new GoogleTokenVerifier(clientIds, "https://certs.test/keys", () -> new MockHttpTransport.Builder()
+                    .setLowLevelHttpResponse(new MockLowLevelHttpResponse() {
+                        @Override
+                        public InputStream getContent() throws IOException {
+                            certFetches.incrementAndGet();
+                            return new ByteArrayInputStream(jwks().getBytes());
+                        }
+                    }.setContentType("application/json"))
+                    .build());
+    }
+
+    @Test
+    void acceptsAValidTokenAndCachesTheKeySet() {
+        String token = token("key-1", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600);
+        GoogleTokenVerifier.GoogleIdentity identity = verifier.verify(token).orElseThrow();
+        assertEquals("marie@example.com", identity.email());
+        assertEquals("Marie", identity.name());
+
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), "client-2", "accounts.google.com", 3600)).isPresent());
+        assertEquals(1, certFetches.get(), "the key set is fetched once");
+    }
+
+    @Test
+    void rejectsWrongAudienceIssuerSignatureOrExpiry() {
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), "someone-else", "https://accounts.google.com", 3600)).isEmpty());
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), CLIENT_ID, "https://evil.example.com", 3600)).isEmpty());
+        assertTrue(verifier.verify(token("key-1", other.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600)).isEmpty());
+        assertTrue(verifier.verify(token("key-9", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600)).isEmpty());
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", -3600)).isEmpty());
+        assertTrue(verifier.verify("not-a-token").isEmpty());
+    }
+
+    @Test
+    void refusesEveryTokenWithoutConfiguredClientIds() {
+        GoogleTokenVerifier unconfigured = verifier(" ");
+        assertFalse(unconfigured.isConfigured());
+        assertTrue(unconfigured.verify(token("key-1", signing.getPrivate(), "any-client", "https://accounts.google.com", 3600)).isEmpty());
+        assertTrue(unconfigured.verify(token("key-1", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600)).isEmpty());
+    }
+
+    @Test
+    void requiresAVerifiedEmail() {
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600,
+                Map.of("email", "marie@example.com", "name", "Marie"))).isEmpty(), "no email_verified claim");
+        assertTrue(verifier.verify(token("key-1", signing.getPrivate(), CLIENT_ID, "https://accounts.google.com", 3600,
+                Map.of("email", "marie@example.com", "email_verified", false))).isEmpty());
+    }
+
+    private String jwks() {
+        RSAPublicKey key = (RSAPublicKey) signing.getPublic();
+        return "{\"keys\":[{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"key-1\","
+                + "\"n\":\"" + base64Url(key.getModulus()) + "\",\"e\":\"" + base64Url(key.getPublicExponent()) + "\"}]}";
+    }
+
+    private static String token(String kid, PrivateKey key, String audience, String issuer, long expiresInSeconds) {
+        return token(kid, key, audience, issuer, expiresInSeconds,
+                Map.of("email", "marie@example.com", "email_verified", true, "name", "Marie"));
+    }
+
+    private static String token(String kid, PrivateKey key, String audience, String issuer, long expiresInSeconds,
+                                Map<String, Object> claims) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setHeaderParam("kid", kid)
+                .setIssuer(issuer)
+                .setAudience(audience)
+                .setSubject("1234567890")
+                .addClaims(claims)
+                .setIssuedAt(new Date(now - 60_000))
+                .setExpiration(new Date(now + expiresInSeconds * 1000))
+                .signWith(key, SignatureAlgorithm.RS256)
+                .compact();
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static KeyPair rsa() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
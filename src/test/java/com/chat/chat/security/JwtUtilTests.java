@@ -0,0 +1,67 @@
+package com.chat.chat.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JwtUtilTests {
+
+    private final JwtUtil jwtUtil = new JwtUtil(new SimpleMeterRegistry(), 1_000);
+
+    @Test
+    void repeatedTokensAreServedFromTheCache() {
+        String token = jwtUtil.generateToken("john@example.com", Map.of("roles", "USER"));
+        Claims first = jwtUtil.parse(token);
+        assertEquals("john@example.com", first.getSubject());
+        assertSame(first, jwtUtil.parse(token));
+    }
+
+    @Test
+    void invalidAndExpiredTokensAreRejected() {
+        String token = jwtUtil.generateToken("john@example.com", Map.of());
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+        assertThrows(JwtException.class, () -> jwtUtil.parse(tampered));
+        assertThrows(JwtException.class, () -> jwtUtil.parse(tampered), "failures are not cached");
+
+        String expired = Jwts.builder()
+                .setSubject("john@example.com")
+                .setExpiration(new Date(System.currentTimeMillis() - 1_000))
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(
+                        "c2VjcmV0LXNlY3JldC1zZWNyZXQtc2VjcmV0LXNlY3JldC1zZWNyZXQ=")), SignatureAlgorithm.HS256)
+                .compact();
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.parse(expired));
+    }
+
+    /** Indicative cost per request of the token check, with and without the cache. */
+    @Test
+    @Tag("benchmark")
+    void comparesCachedAndFullVerification() {
+        String token = jwtUtil.generateToken("john@example.com", Map.of("roles", "USER"));
+        int iterations = 20_000;
+        long full = Long.MAX_VALUE, cached = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) jwtUtil.verify(token);
+            full = Math.min(full, (System.nanoTime() - start) / iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) jwtUtil.parse(token);
+            cached = Math.min(cached, (System.nanoTime() - start) / iterations);
+        }
+        System.out.printf("jwt check: full verification %d ns/op, cached %d ns/op%n", full, cached);
+    }
+}
@@ -0,0 +1,47 @@
+package com.chat.chat.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PasswordHashingExecutorTests {
+
+    @Test
+    void rejectsAtOnceWhenThePoolAndQueueAreFull() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PasswordHashingExecutor executor = new PasswordHashingExecutor(registry, 1, 1, 3);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> running = executor.submit("login", () -> await(release));
+            CompletableFuture<String> queued = executor.submit("login", () -> "queued");
+
+            PasswordHashingExecutor.SaturatedException e = assertThrows(PasswordHashingExecutor.SaturatedException.class,
+                    () -> executor.submit("login", () -> "rejected"));
+            assertEquals(3, e.getRetryAfterSeconds());
+            assertEquals(1.0, registry.get("auth.hashing.rejected").counter().count());
+
+            release.countDown();
+            assertEquals("done", running.get(5, TimeUnit.SECONDS));
+            assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+            assertEquals(2, registry.get("auth.hashing.time").tag("operation", "login").timer().count());
+        } finally {
+            release.countDown();
+            executor.destroy();
+        }
+    }
+
+    private static String await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "done";
+    }
+}
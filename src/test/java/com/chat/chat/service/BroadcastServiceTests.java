@@ -0,0 +1,116 @@
+package com.chat.chat.service;
+
+import com.chat.chat.dto.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BroadcastServiceTests {
+
+    private static final int MEMBERS = 500;
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final AtomicInteger conversions = new AtomicInteger();
+    private final SimpMessagingTemplate template = template();
+
+    @Test
+    void serializesOnceForAllDestinations() {
+        List<String> destinations = destinations();
+
+        new BroadcastService(template).broadcast(message(), destinations);
+
+        assertEquals(1, conversions.get());
+        assertEquals(MEMBERS, sent.size());
+        Object payload = sent.get(0).getPayload();
+        for (int i = 0; i < MEMBERS; i++) {
+            Message<?> m = sent.get(i);
+            assertSame(payload, m.getPayload());
+            assertEquals(destinations.get(i), SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+            assertEquals("application/json", String.valueOf(m.getHeaders().get(MessageHeaders.CONTENT_TYPE)));
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void comparedWithOneConvertAndSendPerDestination() {
+        List<String> destinations = destinations();
+        BroadcastService service = new BroadcastService(template);
+        ChatMessage dto = message();
+        int rounds = 200;
+
+        // Warm-up of both paths
+        for (int i = 0; i < rounds; i++) {
+            service.broadcast(dto, destinations);
+            destinations.forEach(d -> template.convertAndSend(d, dto));
+        }
+
+        conversions.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) destinations.forEach(d -> template.convertAndSend(d, dto));
+        long perDestination = System.nanoTime() - start;
+        int perDestinationConversions = conversions.getAndSet(0);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) service.broadcast(dto, destinations);
+        long once = System.nanoTime() - start;
+
+        assertEquals(rounds * MEMBERS, perDestinationConversions);
+        assertEquals(rounds, conversions.get());
+        System.out.printf("%d x %d destinations: convertAndSend %d ms, serialize-once %d ms%n",
+                rounds, MEMBERS, perDestination / 1_000_000, once / 1_000_000);
+    }
+
+    private SimpMessagingTemplate template() {
+        MessageChannel channel = (message, timeout) -> {
+            if (sent.size() < MEMBERS) sent.add(message);
+            return true;
+        };
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter() {
+            @Override
+            protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+                conversions.incrementAndGet();
+                return super.convertToInternal(payload, headers, conversionHint);
+            }
+        };
+        converter.setObjectMapper(new ObjectMapper().registerModule(new JavaTimeModule()));
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(converter);
+        return template;
+    }
+
+    private static List<String> destinations() {
+        List<String> destinations = new ArrayList<>(MEMBERS);
+        destinations.add("/topic/conversations/1");
+        for (int i = 1; i < MEMBERS; i++) destinations.add("/topic/users/" + i + "/messages");
+        return destinations;
+    }
+
+    private static ChatMessage message() {
+        return ChatMessage.builder()
+                .id("369677068914393088")
+                .text("Salut tout le monde, la réunion est déplacée à 15h")
+                .senderId("1")
+                .senderName("John Doe")
+                .conversationId("1")
+                .conversationName("Équipe")
+                .timestamp(Instant.now())
+                .status("sent")
+                .type("text")
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+package com.chat.chat.service;
+
+import com.chat.chat.config.ClusterMode;
+import com.chat.chat.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContactSearchIndexTests {
+
+    private final ContactSearchIndex index = new ContactSearchIndex(null, new SimpleMeterRegistry(), new ClusterMode("simple"), 1_000);
+
+    @Test
+    void matchesPrefixesOfEveryWordAndRanksThem() {
+        ContactSearchIndex.Loader loader = new ContactSearchIndex.Loader();
+        loader.add(1, "John Doe", "john@example.com");
+        loader.add(2, "Marie Dupont", "marie@example.com");
+        loader.add(3, "Paul Martin", "paul.martin@example.com");
+        loader.add(4, "Johanna Martínez", "jo.m@example.com");
+        loader.add(5, "Martin Johns", "mj@example.com");
+        index.install(loader);
+
+        assertEquals(List.of(1L, 4L, 5L), index.search("joh", null, 10), "first-name prefixes, shorter name first");
+        assertEquals(List.of(4L), index.search("johanna marti", null, 10), "every word must match, accents ignored");
+        assertEquals(List.of(5L, 3L, 4L), index.search("MARTIN", null, 10));
+        assertEquals(List.of(3L), index.search("paul.martin@ex", null, 10));
+        assertEquals(List.of(4L), index.search("joh", 1L, 1), "caller excluded, capped");
+        assertTrue(index.search("example", null, 10).isEmpty(), "domains are not indexed");
+    }
+
+    @Test
+    void upsertReplacesTheTermsOfARenamedUser() {
+        index.install(new ContactSearchIndex.Loader());
+        index.upsert(User.builder().id(7L).name("Paul Martin").email("paul@example.com").build());
+        assertEquals(List.of(7L), index.search("mart", null, 10));
+
+        index.upsert(User.builder().id(7L).name("Paul Durand").email("paul@example.com").build());
+        assertTrue(index.search("mart", null, 10).isEmpty());
+        assertEquals(List.of(7L), index.search("dur", null, 10));
+    }
+
+    /**
+     * Indicative build time, footprint and median query latency at 1M users (no JMH harness
+     * in this build).
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarksAMillionUsers() {
+        int users = 1_000_000;
+        long start = System.nanoTime();
+        index.install(syntheticUsers(users));
+        long buildMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(users, index.size());
+        System.gc();
+
+        StringBuilder report = new StringBuilder();
+        for (String q : new String[]{"jo", "marie", "sophie k", "a", "lucas 3f", "zz"}) {
+            long[] micros = new long[50];
+            for (int i = 0; i < micros.length; i++) {
+                long t = System.nanoTime();
+                index.search(q, null, 20);
+                micros[i] = (System.nanoTime() - t) / 1_000;
+            }
+            Arrays.sort(micros);
+            report.append(String.format(" \"%s\" %d us,", q, micros[micros.length / 2]));
+        }
+        System.out.printf("contact index: %d users built in %d ms, ~%d MB; median query:%s%n",
+                users, buildMs, index.footprintBytes() >> 20, report);
+    }
+
+    private static ContactSearchIndex.Loader syntheticUsers(int users) {
+        String[] first = {"john", "marie", "paul", "sophie", "lucas", "emma", "hugo", "chloe", "louis", "lea",
+                "gabriel", "manon", "arthur", "camille", "jules", "sarah", "adam", "ines", "noah", "jade"};
+        Random random = new Random(42);
+        ContactSearchIndex.Loader loader = new ContactSearchIndex.Loader();
+        for (int id = 1; id <= users; id++) {
+            String given = first[random.nextInt(first.length)];
+            String family = Long.toString(random.nextLong() & Long.MAX_VALUE, 36).substring(0, 7);
+            loader.add(id, given + " " + family, given + "." + family + "@example.com");
+        }
+        return loader;
+    }
+}
@@ -0,0 +1,58 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Conversation;
+import com.chat.chat.model.InboxEntry;
+import com.chat.chat.model.User;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+class InboxServiceTests {
+
+    @Autowired
+    InboxService inboxService;
+
+    @Autowired
+    ConversationService conversationService;
+
+    @Autowired
+    ConversationRepository conversationRepository;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Test
+    void backfillsOlderConversationsEvenAfterANewOneWasRegistered() {
+        User paul = userRepository.findByEmail("paul@example.com").orElseThrow();
+        User marie = userRepository.findByEmail("marie@example.com").orElseThrow();
+        // Written before the projection existed: no inbox rows
+        Conversation old = conversationRepository.save(Conversation.builder()
+                .name("Before the inbox")
+                .participants(Set.of(paul, marie))
+                .lastMessageTime(Instant.now().minusSeconds(86_400))
+                .build());
+        Conversation recent = conversationService.create("After the inbox", List.of(paul.getId(), marie.getId()));
+
+        List<Long> inbox = inboxService.page(paul.getId(), null, null, InboxService.MAX_PAGE_SIZE).stream()
+                .map(InboxEntry::getConversationId)
+                .toList();
+
+        assertEquals(recent.getId(), inbox.get(0));
+        assertTrue(inbox.contains(old.getId()), () -> "missing the older conversation: " + inbox);
+        assertEquals(inbox.size(), Set.copyOf(inbox).size(), "no conversation twice");
+        assertEquals(inbox, inboxService.page(paul.getId(), null, null, InboxService.MAX_PAGE_SIZE).stream()
+                .map(InboxEntry::getConversationId).toList());
+    }
+}
@@ -0,0 +1,75 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Media;
+import com.chat.chat.repository.MediaRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+class MediaStoreTests {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("app.upload.dir", uploadDir::toString);
+        registry.add("app.media.unreferenced-grace-ms", () -> "0");
+        registry.add("app.media.sweep-ms", () -> "86400000");
+    }
+
+    @Autowired
+    MediaStore mediaStore;
+
+    @Autowired
+    MediaRepository mediaRepository;
+
+    @Test
+    void storesEachContentOnceAndSweepsWhatNothingReferences() throws Exception {
+        byte[] photo = "same photo, forwarded twice".getBytes(StandardCharsets.UTF_8);
+        MediaStore.Stored first = mediaStore.store(new MockMultipartFile("file", "photo.jpg", "image/jpeg", photo), null);
+        MediaStore.Stored second = mediaStore.store(new MockMultipartFile("file", "copy.jpg", "image/jpeg", photo), null);
+
+        Media media = first.media();
+        assertFalse(first.duplicate());
+        assertTrue(second.duplicate());
+        assertEquals(media.getId(), second.media().getId());
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(photo));
+        assertEquals(sha256 + ".jpg", media.getStoredName());
+        try (var files = Files.list(uploadDir.resolve("image"))) {
+            assertEquals(1, files.count(), "the duplicate wrote nothing");
+        }
+
+        Path other = Files.write(uploadDir.resolve("other.bin"), new byte[]{1, 2, 3});
+        Media unused = mediaStore.store(other, "ab".repeat(32), "other.bin", null, 3, null).media();
+
+        mediaStore.replaceReference(null, media.getUrl()); // set as an avatar
+        mediaStore.sweepUnreferenced();
+        assertTrue(mediaRepository.existsById(media.getId()));
+        assertFalse(mediaRepository.existsById(unused.getId()));
+        assertFalse(Files.exists(uploadDir.resolve("document").resolve(unused.getStoredName())));
+
+        mediaStore.replaceReference(media.getUrl(), "https://example.com/avatar.png"); // avatar changed
+        assertEquals(0, mediaRepository.findById(media.getId()).orElseThrow().getRefCount());
+        mediaStore.sweepUnreferenced();
+        assertFalse(mediaRepository.existsById(media.getId()));
+        assertFalse(Files.exists(uploadDir.resolve("image").resolve(media.getStoredName())));
+    }
+}
@@ -0,0 +1,152 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.UploadSession;
+import com.chat.chat.repository.UploadSessionRepository;
+import com.chat.chat.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+class MediaUploadServiceTests {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("app.upload.dir", uploadDir::toString);
+    }
+
+    @Autowired
+    MediaUploadService uploads;
+
+    @Autowired
+    UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Test
+    void resumesAfterADroppedConnectionAndPublishesTheFile() throws Exception {
+        byte[] content = new byte[300_000];
+        new Random(7).nextBytes(content);
+        Long john = userRepository.findByEmail("john@example.com").orElseThrow().getId();
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        UploadSession session = uploads.create(john, "clip.mp4", "video/mp4", content.length);
+
+        // The connection drops after 100 000 bytes: what arrived is kept
+        InputStream dropped = new FilterInputStream(new ByteArrayInputStream(content, 0, 200_000)) {
+            int read;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (read >= 100_000) throw new IOException("Connection reset");
+                int n = super.read(b, off, Math.min(len, 100_000 - read));
+                read += n;
+                return n;
+            }
+        };
+        assertThrows(IOException.class, () -> uploads.append(session.getId(), john, 0, dropped));
+        long offset = uploads.status(session.getId(), john).getUploadOffset();
+        assertEquals(100_000, offset);
+
+        MediaUploadService.UploadException stale = assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.append(session.getId(), john, 0, new ByteArrayInputStream(content)));
+        assertEquals(MediaUploadService.Reason.OFFSET_MISMATCH, stale.getReason());
+        assertEquals(100_000, stale.getOffset());
+        assertThrows(MediaUploadService.UploadException.class, () -> uploads.complete(session.getId(), john, null), "incomplete");
+
+        assertEquals(content.length, uploads.append(session.getId(), john, offset,
+                new ByteArrayInputStream(content, (int) offset, content.length - (int) offset)));
+        MediaUploadService.CompletedUpload done = uploads.complete(session.getId(), john, sha256.toUpperCase());
+
+        assertEquals(sha256, done.sha256());
+        assertEquals("video", done.media().getFileType());
+        assertArrayEquals(content, Files.readAllBytes(uploadDir.resolve("video").resolve(done.media().getStoredName())));
+        assertFalse(uploadSessionRepository.existsById(session.getId()));
+        assertFalse(Files.exists(uploadDir.resolve(".incoming").resolve(session.getId() + ".part")));
+    }
+
+    @Test
+    void rejectsOversizedChunksAndBadChecksums() throws Exception {
+        UploadSession session = uploads.create(7L, "notes.txt", "text/plain", 10);
+        assertEquals(MediaUploadService.Reason.FORBIDDEN, assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.append(session.getId(), 8L, 0, new ByteArrayInputStream(new byte[10]))).getReason());
+
+        MediaUploadService.UploadException tooLarge = assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.append(session.getId(), 7L, 0, new ByteArrayInputStream(new byte[12])));
+        assertEquals(MediaUploadService.Reason.TOO_LARGE, tooLarge.getReason());
+        assertEquals(10, tooLarge.getOffset(), "the declared length is kept");
+
+        assertEquals(MediaUploadService.Reason.CHECKSUM_MISMATCH, assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.complete(session.getId(), 7L, "00")).getReason());
+        assertFalse(uploadSessionRepository.existsById(session.getId()), "a corrupt upload is discarded");
+    }
+
+    @Test
+    void uploadsBelongToAnAuthenticatedUser() throws Exception {
+        assertEquals(MediaUploadService.Reason.FORBIDDEN, assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.create(null, "a.bin", null, 5)).getReason());
+        UploadSession session = uploads.create(7L, "a.bin", null, 5);
+        assertEquals(MediaUploadService.Reason.FORBIDDEN, assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.status(session.getId(), null)).getReason());
+    }
+
+    @Test
+    void answersWithTheCallersOwnNameForContentAlreadyStored() throws Exception {
+        byte[] content = "the same contract".getBytes(StandardCharsets.UTF_8);
+        Long john = userRepository.findByEmail("john@example.com").orElseThrow().getId();
+        Long marie = userRepository.findByEmail("marie@example.com").orElseThrow().getId();
+        MediaUploadService.CompletedUpload first = upload(john, "offer-acme-confidential.pdf", content);
+        MediaUploadService.CompletedUpload second = upload(marie, "contract.pdf", content);
+
+        assertEquals(first.media().getId(), second.media().getId());
+        assertEquals("contract.pdf", second.originalName());
+    }
+
+    private MediaUploadService.CompletedUpload upload(Long userId, String name, byte[] content) throws IOException {
+        UploadSession session = uploads.create(userId, name, "application/pdf", content.length);
+        uploads.append(session.getId(), userId, 0, new ByteArrayInputStream(content));
+        return uploads.complete(session.getId(), userId, null);
+    }
+
+    @Test
+    void sweepsAbandonedUploads() throws Exception {
+        UploadSession session = uploads.create(7L, "a.bin", null, 5);
+        uploads.append(session.getId(), 7L, 0, new ByteArrayInputStream(new byte[]{1, 2}));
+        UploadSession stored = uploadSessionRepository.findById(session.getId()).orElseThrow();
+        stored.setExpiresAt(Instant.now().minusSeconds(1));
+        uploadSessionRepository.save(stored);
+
+        uploads.sweepExpired();
+        assertFalse(uploadSessionRepository.existsById(session.getId()));
+        try (var files = Files.list(uploadDir.resolve(".incoming"))) {
+            assertFalse(files.anyMatch(f -> f.getFileName().toString().startsWith(session.getId())));
+        }
+        assertEquals(MediaUploadService.Reason.NOT_FOUND, assertThrows(MediaUploadService.UploadException.class,
+                () -> uploads.status(session.getId(), 7L)).getReason());
+    }
+}
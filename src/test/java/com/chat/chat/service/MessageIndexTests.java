@@ -0,0 +1,126 @@
+package com.chat.chat.service;
+
+import com.chat.chat.id.Snowflake;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIndexTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void answersTheSameFromBufferSegmentsMergesAndAfterReopening() throws Exception {
+        MessageIndex index = new MessageIndex(dir);
+        index.add(1, 10, "Rendez-vous à la gare demain matin");
+        index.add(2, 10, "La gare est fermée, on se voit au café");
+        index.add(3, 20, "Demain matin je suis au bureau");
+        assertQueries(index);
+
+        assertTrue(index.flush());
+        index.add(4, 10, "Le café du matin, comme demain");
+        index.add(5, 20, "Garez-vous devant la gare");
+        assertTrue(index.flush());
+        assertEquals(2, index.segmentCount());
+        assertQueries(index);
+        assertArrayEquals(new long[]{5, 2, 1}, index.search("gare", new long[]{10, 20}, Long.MAX_VALUE, 10));
+
+        assertTrue(index.merge(1));
+        assertEquals(1, index.segmentCount());
+        assertQueries(index);
+
+        MessageIndex reopened = new MessageIndex(dir);
+        assertEquals(5, reopened.watermark());
+        assertQueries(reopened);
+        assertArrayEquals(new long[]{4, 2}, reopened.search("café", new long[]{10}, Long.MAX_VALUE, 10));
+    }
+
+    private static void assertQueries(MessageIndex index) {
+        long[] all = {10, 20};
+        assertArrayEquals(new long[]{3, 1}, index.search("\"demain matin\"", all, Long.MAX_VALUE, 10), "phrase");
+        assertArrayEquals(new long[]{1}, index.search("\"demain matin\"", new long[]{10}, Long.MAX_VALUE, 10), "scoped");
+        assertArrayEquals(new long[]{2}, index.search("GARE ferm*", all, Long.MAX_VALUE, 10), "prefix, accents and case");
+        assertArrayEquals(new long[]{1}, index.search("demain matin", all, 3, 10), "before");
+        assertArrayEquals(new long[0], index.search("\"matin demain\"", new long[]{20}, Long.MAX_VALUE, 10), "word order");
+        assertArrayEquals(new long[]{2}, index.search("la", new long[]{10}, Long.MAX_VALUE, 1), "limit");
+    }
+
+    @Test
+    void mergesAMessageIndexedTwice() throws Exception {
+        MessageIndex index = new MessageIndex(dir);
+        index.add(7, 1, "hello hello world");
+        index.flush();
+        index.add(7, 1, "hello hello world"); // catch-up overlapping what was already flushed
+        index.add(7, 1, "hello hello world");
+        assertArrayEquals(new long[]{7}, index.search("\"hello world\"", new long[]{1}, Long.MAX_VALUE, 10));
+        index.flush();
+        index.merge(1);
+        assertArrayEquals(new long[]{7}, index.search("hello*", new long[]{1}, Long.MAX_VALUE, 10));
+    }
+
+    /**
+     * Size and latency on 200k messages over 1000 conversations, flushed in 20 segments then
+     * merged. Indicative only (no JMH harness in this build).
+     */
+    @Test
+    @Tag("benchmark")
+    void measuresSizeAndLatency() throws Exception {
+        String[] vocabulary = new String[5_000];
+        Random random = new Random(42);
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int c = 3 + random.nextInt(6); c > 0; c--) word.append((char) ('a' + random.nextInt(26)));
+            vocabulary[i] = word.toString();
+        }
+        MessageIndex index = new MessageIndex(dir);
+        long id = Snowflake.firstIdAt(System.currentTimeMillis());
+        int messages = 200_000;
+        long words = 0;
+        long start = System.nanoTime();
+        for (int m = 0; m < messages; m++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 4 + random.nextInt(12); w > 0; w--, words++) {
+                // Zipf-like: a few words are very common
+                text.append(vocabulary[(int) (vocabulary.length * Math.pow(random.nextDouble(), 3))]).append(' ');
+            }
+            id += 1 + random.nextInt(1 << 22);
+            index.add(id, m % 1_000, text.toString());
+            if (m % 10_000 == 9_999) index.flush();
+        }
+        long indexNanos = System.nanoTime() - start;
+        assertEquals(20, index.segmentCount());
+        start = System.nanoTime();
+        while (index.merge(1)) {
+            // down to one segment
+        }
+        long mergeNanos = System.nanoTime() - start;
+
+        long[] scope = new long[50];
+        for (int i = 0; i < scope.length; i++) scope[i] = i * 20L;
+        String[] queries = {vocabulary[0], vocabulary[100] + " " + vocabulary[1], vocabulary[2].substring(0, 2) + "*",
+                "\"" + vocabulary[0] + " " + vocabulary[1] + "\""};
+        long[] best = new long[queries.length];
+        int hits = 0;
+        for (int q = 0; q < queries.length; q++) {
+            best[q] = Long.MAX_VALUE;
+            for (int round = 0; round < 20; round++) {
+                long t = System.nanoTime();
+                hits += index.search(queries[q], scope, Long.MAX_VALUE, 20).length;
+                best[q] = Math.min(best[q], System.nanoTime() - t);
+            }
+        }
+        assertTrue(hits > 0);
+        System.out.printf("message index: %d messages, %d words indexed in %d ms, merged in %d ms, %d bytes on disk (%.2f per word); "
+                        + "query over 50 conversations: word %d us, two words %d us, prefix %d us, phrase %d us%n",
+                messages, words, indexNanos / 1_000_000, mergeNanos / 1_000_000, index.diskBytes(),
+                (double) index.diskBytes() / words, best[0] / 1_000, best[1] / 1_000, best[2] / 1_000, best[3] / 1_000);
+    }
+}
@@ -0,0 +1,47 @@
+package com.chat.chat.service;
+
+import com.chat.chat.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+class ParticipantIndexTests {
+
+    @Autowired
+    ConversationService conversationService;
+
+    @Autowired
+    ParticipantIndex participantIndex;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    void cachesMembersOnlyOnceTheConversationIsCommitted() {
+        Long john = userRepository.findByEmail("john@example.com").orElseThrow().getId();
+        Long paul = userRepository.findByEmail("paul@example.com").orElseThrow().getId();
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        Long rolledBack = tx.execute(status -> {
+            Long id = conversationService.create("Rolled back", List.of(john, paul)).getId();
+            status.setRollbackOnly();
+            return id;
+        });
+        assertArrayEquals(new long[0], participantIndex.participants(rolledBack));
+
+        Long committed = tx.execute(status -> conversationService.create("Committed", List.of(john, paul)).getId());
+        assertArrayEquals(new long[]{Math.min(john, paul), Math.max(john, paul)}, participantIndex.participants(committed));
+    }
+}
@@ -0,0 +1,165 @@
+package com.chat.chat.service;
+
+import com.chat.chat.repository.ContactPair;
+import com.chat.chat.repository.ConversationRepository;
+import com.chat.chat.repository.InboxEntryRepository;
+import com.chat.chat.repository.UserRepository;
+import com.chat.chat.security.ChatPrincipal;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PresenceServiceTests {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final InboxEntryRepository inboxEntryRepository = mock(InboxEntryRepository.class);
+    private final ConversationRepository conversationRepository = mock(ConversationRepository.class);
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final List<List<Long>> wentOnline = new ArrayList<>();
+    private final List<List<Long>> wentOffline = new ArrayList<>();
+    private final List<ContactPair> contacts = new ArrayList<>();
+    private final PresenceService presence;
+
+    PresenceServiceTests() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> sent.add(message));
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        when(userRepository.updateOnline(anyCollection(), anyBoolean())).thenAnswer(call -> {
+            List<Long> ids = new ArrayList<>(call.<Collection<Long>>getArgument(0));
+            (call.<Boolean>getArgument(1) ? wentOnline : wentOffline).add(ids);
+            return ids.size();
+        });
+        when(conversationRepository.findContactPairs(anyCollection())).thenAnswer(call -> {
+            Collection<Long> changed = call.getArgument(0);
+            return contacts.stream().filter(pair -> changed.contains(pair.userId())).toList();
+        });
+        presence = new PresenceService(userRepository, inboxEntryRepository, conversationRepository, template,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), false);
+    }
+
+    @Test
+    void aUserStaysOnlineUntilTheirLastDeviceDisconnects() {
+        presence.connected("phone", 1L);
+        presence.connected("laptop", 1L);
+        presence.disconnected("phone");
+        assertTrue(presence.isOnline(1L));
+
+        presence.disconnected("laptop");
+        presence.disconnected("laptop");
+        presence.disconnected("phone");
+        assertFalse(presence.isOnline(1L));
+
+        // Repeated disconnects did not drive the device count below zero
+        presence.connected("tablet", 1L);
+        assertTrue(presence.isOnline(1L));
+    }
+
+    @Test
+    void sessionsAreAttributedByTheTokenUserId() {
+        when(userRepository.findStatusMessageById(9L)).thenReturn(Optional.of("Busy"));
+        ChatPrincipal principal = new ChatPrincipal(9L, "paul@example.com", List.of());
+        var user = new UsernamePasswordAuthenticationToken(principal, null, principal.authorities());
+
+        presence.onConnected(new SessionConnectedEvent(this,
+                MessageBuilder.withPayload(new byte[0]).setHeader("simpSessionId", "s1").build(), user));
+        presence.onConnected(new SessionConnectedEvent(this,
+                MessageBuilder.withPayload(new byte[0]).setHeader("simpSessionId", "s2").build(), user));
+
+        assertTrue(presence.isOnline(9L));
+        assertEquals("Busy", presence.getPresence(9L).getStatusMessage());
+        // Only the status message is read, once for the first device
+        verify(userRepository, times(1)).findStatusMessageById(9L);
+        verify(userRepository, never()).findByEmail(anyString());
+    }
+
+    @Test
+    void flushWritesOneBulkUpdatePerDirectionAndSkipsReconnects() {
+        presence.connected("a", 1L);
+        presence.connected("b", 2L);
+        presence.connected("c", 3L);
+        presence.flush();
+        assertEquals(1, wentOnline.size());
+        assertEquals(Set.of(1L, 2L, 3L), new HashSet<>(wentOnline.get(0)));
+
+        // Reconnect within the window: back to the flushed state, nothing to write
+        presence.disconnected("a");
+        presence.connected("a2", 1L);
+        presence.disconnected("b");
+        presence.disconnected("c");
+        presence.flush();
+        assertEquals(1, wentOnline.size());
+        assertEquals(List.of(List.of(2L, 3L)), wentOffline.stream().map(ids -> ids.stream().sorted().toList()).toList());
+
+        presence.flush();
+        assertEquals(1, wentOnline.size());
+        assertEquals(1, wentOffline.size());
+    }
+
+    @Test
+    void aFailedFlushIsRetriedAtTheNextOne() {
+        when(inboxEntryRepository.updateCounterpartOnline(anyCollection(), anyBoolean()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(1);
+        contacts.add(new ContactPair(1L, 2L, "marie@example.com"));
+
+        presence.connected("a", 1L);
+        presence.flush();
+        assertTrue(sent.isEmpty(), "nothing is published for a change that was not persisted");
+
+        presence.flush();
+        assertEquals(2, wentOnline.size());
+        assertEquals(List.of(1L), wentOnline.get(1));
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void diffsOnlyGoToTheChangedUsersContacts() throws Exception {
+        contacts.add(new ContactPair(1L, 2L, "marie@example.com"));
+        contacts.add(new ContactPair(1L, 3L, "paul@example.com"));
+        contacts.add(new ContactPair(4L, 2L, "marie@example.com"));
+
+        presence.connected("a", 1L);
+        presence.connected("b", 4L);
+        presence.connected("c", 5L); // shares no conversation
+        presence.flush();
+
+        Map<String, Set<String>> received = new TreeMap<>();
+        for (Message<?> message : sent) {
+            List<?> diff = new ObjectMapper().readValue((byte[]) message.getPayload(), List.class);
+            Set<String> userIds = new HashSet<>();
+            diff.forEach(event -> userIds.add(String.valueOf(((Map<?, ?>) event).get("userId"))));
+            received.put(SimpMessageHeaderAccessor.getDestination(message.getHeaders()), userIds);
+        }
+        assertEquals(Map.of(
+                "/user/marie@example.com/queue/presence", Set.of("1", "4"),
+                "/user/paul@example.com/queue/presence", Set.of("1")), received);
+    }
+}
@@ -0,0 +1,124 @@
+package com.chat.chat.service;
+
+import com.chat.chat.dto.PresenceEvent;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceStoreTests {
+
+    @Test
+    void tracksDevicesAndReportsOnlyEffectiveChanges() {
+        PresenceStore store = new PresenceStore(4);
+        assertEquals(1, store.connect(42));
+        assertEquals(2, store.connect(42));
+        assertEquals(1, store.disconnect(42));
+        assertTrue(store.isOnline(42));
+        assertEquals(0, store.disconnect(7), "unknown user");
+
+        assertArrayEquals(new long[]{42}, store.drainChanged());
+        store.flushed(new long[]{42}, true, true);
+
+        // Offline then back online before the next flush: nothing to write
+        store.disconnect(42);
+        store.connect(42);
+        assertEquals(0, store.drainChanged().length);
+
+        store.disconnect(42);
+        assertFalse(store.isOnline(42));
+        long[] changed = store.drainChanged();
+        assertArrayEquals(new long[]{42}, changed);
+        store.flushed(changed, false, false);
+        assertArrayEquals(new long[]{42}, store.drainChanged(), "a failed flush is retried");
+    }
+
+    @Test
+    void growsAndAnswersBulkQueries() {
+        PresenceStore store = new PresenceStore(16);
+        for (long id = 1; id <= 10_000; id++) {
+            store.setStatus(id, id % 2 == 0 ? "Available" : "Busy");
+            if (id % 3 == 0) store.connect(id);
+        }
+        assertEquals(10_000, store.size());
+        assertEquals(3_333, store.onlineCount());
+        assertArrayEquals(new long[]{3, 6, 9999}, store.onlineAmong(new long[]{1, 3, 6, 7, 9999, 20_000}));
+
+        assertSame(store.status(2), store.status(4), "status messages are interned");
+        assertEquals("Busy", store.status(9_999));
+        store.setStatus(9_999, null);
+        assertNull(store.status(9_999));
+    }
+
+    @Test
+    void releasesStatusMessagesNobodyHasAnymore() {
+        PresenceStore store = new PresenceStore(16);
+        for (long id = 1; id <= 1_000; id++) store.setStatus(id, "Back at " + id);
+        assertEquals(1_000, store.distinctStatuses());
+
+        for (long id = 1; id <= 1_000; id++) store.setStatus(id, "Available");
+        assertEquals(1, store.distinctStatuses());
+        long settled = store.footprintBytes();
+
+        // Changing texts reuse the released slots: the pool does not grow again
+        for (int round = 0; round < 10; round++) {
+            for (long id = 1; id <= 1_000; id++) store.setStatus(id, "Round " + round + " " + id);
+        }
+        for (long id = 1; id <= 1_000; id++) store.setStatus(id, id == 1 ? "Available" : null);
+        assertEquals(1, store.distinctStatuses());
+        assertEquals(settled, store.footprintBytes());
+        assertEquals("Available", store.status(1));
+        assertNull(store.status(2));
+    }
+
+    /**
+     * Footprint and lookup cost against the boxed map it replaces, at 1M users. Indicative
+     * only (no JMH harness in this build); the boxed estimate counts a ConcurrentHashMap node,
+     * its Long key and a PresenceEvent with its userId string, ~170 bytes per user.
+     */
+    @Test
+    @Tag("benchmark")
+    void comparesWithBoxedMap() {
+        int users = 1_000_000;
+        PresenceStore store = new PresenceStore(users);
+        Map<Long, PresenceEvent> boxed = new ConcurrentHashMap<>(users * 2);
+        for (long id = 1; id <= users; id++) {
+            store.setStatus(id, "Available");
+            boxed.put(id, PresenceEvent.builder().userId(String.valueOf(id)).statusMessage("Available").build());
+            if (id % 2 == 0) {
+                store.connect(id);
+                boxed.get(id).setOnline(true);
+            }
+        }
+        long storeBytes = store.footprintBytes();
+        long boxedBytes = 170L * users + 16L * Integer.highestOneBit(users * 4);
+        assertTrue(storeBytes * 3 < boxedBytes, storeBytes + " vs " + boxedBytes);
+
+        long[] query = LongStream.rangeClosed(1, 1_000).map(i -> i * 997 % users + 1).toArray();
+        long storeNanos = Long.MAX_VALUE, boxedNanos = Long.MAX_VALUE;
+        int sink = 0;
+        for (int round = 0; round < 50; round++) {
+            long start = System.nanoTime();
+            sink += store.onlineAmong(query).length;
+            storeNanos = Math.min(storeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (long id : query) {
+                PresenceEvent event = boxed.get(id);
+                if (event != null && event.isOnline()) sink++;
+            }
+            boxedNanos = Math.min(boxedNanos, System.nanoTime() - start);
+        }
+        System.out.printf("presence store: %d bytes, 1000 lookups in %d ns; boxed map: ~%d bytes, %d ns (%d)%n",
+                storeBytes, storeNanos, boxedBytes, boxedNanos, sink);
+    }
+}
@@ -0,0 +1,51 @@
+package com.chat.chat.service;
+
+import com.chat.chat.model.Message;
+import com.chat.chat.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@ActiveProfiles("h2")
+class ReadStateServiceTests {
+
+    @Autowired
+    ConversationService conversationService;
+
+    @Autowired
+    MessageService messageService;
+
+    @Autowired
+    ReadStateService readStateService;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Test
+    void readingAnOlderMessageKeepsTheNewerOnesUnread() {
+        Long john = userRepository.findByEmail("john@example.com").orElseThrow().getId();
+        Long marie = userRepository.findByEmail("marie@example.com").orElseThrow().getId();
+        Long conversation = conversationService.create("Lunch", List.of(john, marie)).getId();
+        Message first = messageService.sendMessage(conversation, marie, "one", Message.Type.TEXT, null);
+        Message second = messageService.sendMessage(conversation, marie, "two", Message.Type.TEXT, null);
+        messageService.sendMessage(conversation, marie, "three", Message.Type.TEXT, null);
+        assertEquals(3, unread(john, conversation));
+
+        readStateService.markRead(john, conversation, first.getId());
+        assertEquals(2, unread(john, conversation));
+        readStateService.markRead(john, conversation, second.getId());
+        assertEquals(1, unread(john, conversation));
+        readStateService.markRead(john, conversation, first.getId()); // late receipt: the watermark stays
+        assertEquals(1, unread(john, conversation));
+    }
+
+    private int unread(Long userId, Long conversationId) {
+        return readStateService.unreadCounts(userId, List.of(conversationId)).get(conversationId);
+    }
+}
@@ -0,0 +1,80 @@
+package com.chat.chat.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TypingAggregatorTests {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final TypingAggregator aggregator;
+
+    TypingAggregatorTests() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> sent.add(message));
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        aggregator = new TypingAggregator(template, new SimpleMeterRegistry(), 5_000, 300, 100, 3, now::get);
+    }
+
+    @Test
+    void keystrokesAreCoalescedIntoOneBroadcastPerInterval() throws Exception {
+        // 3 users, 10 keystroke events each per second for 2 seconds
+        for (int ms = 0; ms < 2_000; ms += 100) {
+            for (long user = 1; user <= 3; user++) aggregator.update(7L, user, true);
+            step(100);
+        }
+
+        assertEquals(1, sent.size(), "only the change of the typing set is published");
+        assertEquals(List.of("1", "2", "3"), typing(0));
+
+        aggregator.update(7L, 2L, false);
+        aggregator.update(7L, 2L, true);
+        aggregator.update(7L, 2L, false);
+        step(100);
+        assertEquals(2, sent.size());
+        assertEquals(List.of("1", "3"), typing(1));
+    }
+
+    @Test
+    void silentTypersExpireAndEmptyConversationsAreRemoved() throws Exception {
+        aggregator.update(7L, 1L, true);
+        aggregator.update(8L, 2L, true);
+        step(100);
+        assertEquals(2, sent.size());
+
+        // User 1 keeps typing, user 2 disconnects without a "stopped typing" event
+        for (int ms = 0; ms < 9_000; ms += 100) {
+            if (ms < 3_000) aggregator.update(7L, 1L, true);
+            step(100);
+        }
+
+        assertEquals(4, sent.size());
+        assertTrue(typing(2).isEmpty() && typing(3).isEmpty());
+        assertEquals(0, aggregator.trackedConversations());
+    }
+
+    private void step(long ms) {
+        now.addAndGet(ms);
+        aggregator.tick();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> typing(int index) throws Exception {
+        Map<String, Object> state = new ObjectMapper().readValue((byte[]) sent.get(index).getPayload(), Map.class);
+        assertTrue(SimpMessageHeaderAccessor.getDestination(sent.get(index).getHeaders()).endsWith("/typing"));
+        assertEquals("3", state.get("node"));
+        return (List<String>) state.get("userIds");
+    }
+}